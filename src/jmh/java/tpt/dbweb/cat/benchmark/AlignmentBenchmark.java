@@ -0,0 +1,68 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.benchmark;
+
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import tools.aligner.TextSpanAligner;
+import tools.aligner.TextSpanAligner.DiffMode;
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+/**
+ * Aligning mentions to a text with different whitespace and some changed words, like the text of another annotator
+ *
+ * @author Thomas Rebele
+ */
+public class AlignmentBenchmark extends CorpusBenchmark {
+
+  @Param({ "CHARACTER", "TOKEN" })
+  public DiffMode diffMode;
+
+  TaggedText tt;
+
+  String dst;
+
+  TextSpanAligner<EntityMention> aligner;
+
+  int[] starts, ends, alignedStarts, alignedEnds;
+
+  @Setup
+  public void setup() {
+    tt = corpus().generateDocument("doc", 1, new Random(0)).get(0);
+    dst = tt.text.replace("\n\n", " ").replace(" of ", "  of  ").replace("Paris", "Lyon");
+    aligner = new TextSpanAligner<>(tt.text, dst, diffMode);
+    int n = tt.mentions.size();
+    starts = new int[n];
+    ends = new int[n];
+    for (int i = 0; i < n; i++) {
+      starts[i] = tt.mentions.get(i).start;
+      ends[i] = tt.mentions.get(i).end;
+    }
+    alignedStarts = new int[n];
+    alignedEnds = new int[n];
+  }
+
+  @Benchmark
+  public TextSpanAligner<EntityMention> construct() {
+    return new TextSpanAligner<>(tt.text, dst, diffMode);
+  }
+
+  @Benchmark
+  public List<EntityMention> align() {
+    return aligner.align(tt.mentions);
+  }
+
+  @Benchmark
+  public int[] alignArrays() {
+    aligner.align(starts, ends, starts.length, alignedStarts, alignedEnds);
+    return alignedEnds;
+  }
+}
@@ -0,0 +1,89 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tpt.dbweb.cat.Compare;
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+import tpt.dbweb.cat.datatypes.iterators.CompareIterator;
+import tpt.dbweb.cat.datatypes.iterators.CompareSweep;
+import tpt.dbweb.cat.tools.MentionChainAligner;
+
+/**
+ * Comparing one document of several annotators: iterating over the mentions, aligning the chains and rendering the comparison
+ *
+ * @author Thomas Rebele
+ */
+public class ComparisonBenchmark extends CorpusBenchmark {
+
+  /** number of annotators, including the gold standard */
+  @Param({ "2", "3", "4", "5" })
+  public int annotators;
+
+  List<TaggedText> tts;
+
+  List<List<EntityMention>> mentions;
+
+  @Setup
+  public void setup() {
+    tts = corpus().generateDocument("doc", annotators, new Random(0));
+    mentions = new ArrayList<>();
+    for (TaggedText tt : tts) {
+      mentions.add(tt.mentions);
+    }
+  }
+
+  @Benchmark
+  public void compareIterator(Blackhole bh) {
+    CompareIterator it = new CompareIterator(tts.get(0).text, tts.get(0).id, mentions);
+    while (it.hasNext()) {
+      bh.consume(it.next());
+    }
+  }
+
+  @Benchmark
+  public void compareSweep(Blackhole bh) {
+    CompareSweep sweep = new CompareSweep(tts.get(0).text.length());
+    for (List<EntityMention> list : mentions) {
+      sweep.add(list);
+    }
+    CompareSweep.Cursor cursor = sweep.cursor();
+    while (sweep.advance()) {
+      for (int i = 0; i < cursor.size(); i++) {
+        bh.consume(cursor.principalRow(i));
+      }
+    }
+  }
+
+  @Benchmark
+  public void guessEntityMapGreedy(Blackhole bh) {
+    MentionChainAligner aligner = new MentionChainAligner();
+    for (int i = 1; i < tts.size(); i++) {
+      bh.consume(aligner.guessEntityMapGreedy(tts.get(0), tts.get(i)));
+    }
+  }
+
+  @Benchmark
+  public void guessEntityMapOptimal(Blackhole bh) {
+    MentionChainAligner aligner = new MentionChainAligner();
+    for (int i = 1; i < tts.size(); i++) {
+      bh.consume(aligner.guessEntityMapOptimal(tts.get(0), tts.get(i)));
+    }
+  }
+
+  @Benchmark
+  public String compare() {
+    return new Compare(new Compare.Options()).compare(tts);
+  }
+}
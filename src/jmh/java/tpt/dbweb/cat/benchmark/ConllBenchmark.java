@@ -0,0 +1,75 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import tpt.dbweb.cat.datatypes.TaggedText;
+import tpt.dbweb.cat.evaluation.ComparisonResult;
+import tpt.dbweb.cat.evaluation.ReferenceEvaluator;
+import tpt.dbweb.cat.io.ConllWriter;
+
+/**
+ * Writing the input of the reference coreference scorer, and parsing its output
+ *
+ * @author Thomas Rebele
+ */
+public class ConllBenchmark extends CorpusBenchmark {
+
+  @Param({ "20" })
+  public int documents;
+
+  List<TaggedText> tts;
+
+  Path file;
+
+  String scorerOutput;
+
+  ReferenceEvaluator evaluator;
+
+  @Setup
+  public void setup() throws IOException {
+    tts = corpus().generate(documents, 1).get(0);
+    file = Files.createTempFile("cat-benchmark", ".conll");
+
+    // output of scorer.pl with one block per metric and document
+    StringBuilder sb = new StringBuilder("version: 8.01 scorer.pl\n");
+    for (String metric : new String[] { "muc", "bcub", "ceafm", "ceafe", "blanc" }) {
+      sb.append("\nMETRIC ").append(metric).append(":\n");
+      for (TaggedText tt : tts) {
+        int n = tt.mentions.size();
+        sb.append("\n====> ").append(tt.id).append(":\n");
+        sb.append("Entity 0: (0,1)\n");
+        sb.append("Recall: (" + (n / 2) + " / " + n + ") 50%\tPrecision: (" + (n / 2) + " / " + (n - 1) + ") 50.5%\tF1: 50.25%\n");
+        sb.append("--------------------------------------------------------------------------\n");
+      }
+    }
+    scorerOutput = sb.toString();
+    evaluator = new ReferenceEvaluator();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public void writeTTList() {
+    new ConllWriter().writeTTList(tts, file);
+  }
+
+  @Benchmark
+  public ComparisonResult parseScorerOutput() {
+    return evaluator.parseScorerOutput(scorerOutput);
+  }
+}
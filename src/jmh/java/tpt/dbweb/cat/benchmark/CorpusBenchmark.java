@@ -0,0 +1,50 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parameters and settings shared by all benchmarks. Override the parameters on the command line, e.g.
+ * <pre>
+ * java -jar target/benchmarks.jar ComparisonBenchmark -p documentLength=100000 -p annotators=2,5
+ * </pre>
+ *
+ * @author Thomas Rebele
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class CorpusBenchmark {
+
+  /** length of a document in characters */
+  @Param({ "2000", "20000" })
+  public int documentLength;
+
+  /** probability that a group of nested mentions starts at a word */
+  @Param({ "0.05", "0.2" })
+  public double mentionDensity;
+
+  /** number of mentions in a group of nested mentions */
+  @Param({ "1", "3" })
+  public int nestingDepth;
+
+  protected SyntheticCorpus corpus() {
+    return new SyntheticCorpus(documentLength, mentionDensity, nestingDepth);
+  }
+}
@@ -0,0 +1,58 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tpt.dbweb.cat.datatypes.TaggedText;
+import tpt.dbweb.cat.io.ArticleIndex;
+import tpt.dbweb.cat.io.TaggedTextXMLReader;
+import tpt.dbweb.cat.io.TaggedTextXMLWriter;
+
+/**
+ * Reading an XML file of tagged texts
+ *
+ * @author Thomas Rebele
+ */
+public class ReadingBenchmark extends CorpusBenchmark {
+
+  @Param({ "20" })
+  public int documents;
+
+  Path file;
+
+  @Setup
+  public void setup() throws IOException {
+    file = Files.createTempFile("cat-benchmark", ".xml");
+    try (TaggedTextXMLWriter writer = new TaggedTextXMLWriter(file)) {
+      for (TaggedText tt : corpus().generate(documents, 1).get(0)) {
+        writer.write(null, tt);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(ArticleIndex.sidecarPath(file));
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public void iteratePath(Blackhole bh) throws IOException {
+    Iterator<TaggedText> it = new TaggedTextXMLReader().iteratePath(file);
+    while (it.hasNext()) {
+      bh.consume(it.next());
+    }
+  }
+}
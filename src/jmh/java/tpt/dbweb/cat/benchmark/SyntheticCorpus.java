@@ -0,0 +1,145 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+/**
+ * Generates reproducible tagged texts for the benchmarks.
+ * The gold standard has nested mentions of a few recurring entities.
+ * The other annotators are noisy copies of it: they miss mentions, shift boundaries, pick other entities and add mentions.
+ *
+ * @author Thomas Rebele
+ */
+public class SyntheticCorpus {
+
+  private static final String[] words = { "the", "president", "of", "United", "States", "visited", "Paris", "on", "Monday", "and", "met",
+      "with", "a", "delegation", "from", "Germany", "." };
+
+  /** length of the texts in characters */
+  public final int documentLength;
+
+  /** probability that a mention (or a group of nested mentions) starts at a word */
+  public final double mentionDensity;
+
+  /** number of mentions in a group of nested mentions */
+  public final int nestingDepth;
+
+  public SyntheticCorpus(int documentLength, double mentionDensity, int nestingDepth) {
+    this.documentLength = documentLength;
+    this.mentionDensity = mentionDensity;
+    this.nestingDepth = nestingDepth;
+  }
+
+  /**
+   * Generate documents annotated by several annotators
+   * @param documents number of documents
+   * @param annotators number of annotators, including the gold standard
+   * @return one list of documents per annotator; the first list is the gold standard
+   */
+  public List<List<TaggedText>> generate(int documents, int annotators) {
+    List<List<TaggedText>> result = new ArrayList<>();
+    for (int a = 0; a < annotators; a++) {
+      result.add(new ArrayList<>());
+    }
+    for (int d = 0; d < documents; d++) {
+      List<TaggedText> tts = generateDocument("doc" + d, annotators, new Random(d));
+      for (int a = 0; a < annotators; a++) {
+        result.get(a).add(tts.get(a));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Generate one document annotated by several annotators
+   * @return one tagged text per annotator; the first one is the gold standard
+   */
+  public List<TaggedText> generateDocument(String id, int annotators, Random random) {
+    // text and word boundaries
+    StringBuilder sb = new StringBuilder();
+    List<int[]> wordSpans = new ArrayList<>();
+    while (sb.length() < documentLength) {
+      if (sb.length() > 0) {
+        sb.append(random.nextInt(20) == 0 ? "\n\n" : " ");
+      }
+      String word = words[random.nextInt(words.length)];
+      wordSpans.add(new int[] { sb.length(), sb.length() + word.length() });
+      sb.append(word);
+    }
+    String text = sb.toString();
+
+    // gold standard: groups of nested mentions
+    int entityCount = Math.max(1, wordSpans.size() / 50);
+    List<EntityMention> gold = new ArrayList<>();
+    for (int w = 0; w < wordSpans.size(); w++) {
+      if (random.nextDouble() >= mentionDensity) {
+        continue;
+      }
+      int last = Math.min(wordSpans.size() - 1, w + nestingDepth + random.nextInt(3));
+      for (int level = 0; level < nestingDepth && w + level <= last - level; level++) {
+        int start = wordSpans.get(w + level)[0], end = wordSpans.get(last - level)[1];
+        gold.add(new EntityMention(text, start, end, "Entity_" + random.nextInt(entityCount)));
+      }
+      w = last;
+    }
+
+    List<TaggedText> result = new ArrayList<>();
+    for (int a = 0; a < annotators; a++) {
+      TaggedText tt = new TaggedText();
+      tt.id = id;
+      tt.text = text;
+      tt.mentions = a == 0 ? gold : perturb(text, gold, wordSpans, entityCount, random);
+      tt.mentions.forEach(EntityMention::internEntity);
+      tt.mentions.sort(null);
+      result.add(tt);
+    }
+    return result;
+  }
+
+  private List<EntityMention> perturb(String text, List<EntityMention> gold, List<int[]> wordSpans, int entityCount, Random random) {
+    List<EntityMention> result = new ArrayList<>();
+    for (EntityMention em : gold) {
+      double r = random.nextDouble();
+      if (r < 0.1) {
+        // missing
+        continue;
+      }
+      EntityMention copy = new EntityMention(em);
+      if (r < 0.2) {
+        copy.entity = "Entity_" + random.nextInt(entityCount);
+      } else if (r < 0.25 && copy.start > 0) {
+        // include the word before the mention
+        copy.start = wordSpans.get(Math.max(0, wordIndex(wordSpans, copy.start) - 1))[0];
+      }
+      result.add(copy);
+    }
+    // additional mentions
+    int extra = (int) (gold.size() * 0.1);
+    for (int i = 0; i < extra; i++) {
+      int[] word = wordSpans.get(random.nextInt(wordSpans.size()));
+      result.add(new EntityMention(text, word[0], word[1], "Other_" + random.nextInt(entityCount)));
+    }
+    return result;
+  }
+
+  private static int wordIndex(List<int[]> wordSpans, int start) {
+    int lo = 0, hi = wordSpans.size() - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (wordSpans.get(mid)[0] <= start) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+}
@@ -7,8 +7,6 @@ package tools.aligner;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.TreeMap;
 
 import tools.aligner.DiffMatchPatch.Diff;
 import tools.aligner.DiffMatchPatch.Operation;
@@ -17,6 +15,8 @@ import tpt.dbweb.cat.datatypes.TextSpan;
 /**
  * Align a list of text spans to a similar string which has some characters removed or added.
  * Useful if a tool or input format chances the text from which the text spans were calculated.
+ * If the texts differ only in whitespace, the alignment takes linear time. Otherwise the part between the longest prefix and suffix
+ * which differ only in whitespace is aligned with a diff, see {@link DiffMode}.
  *
  * See the main method for an usage example.
  * @author Thomas Rebele
@@ -24,38 +24,210 @@ import tpt.dbweb.cat.datatypes.TextSpan;
  */
 public class TextSpanAligner<T extends TextSpan> {
 
-  /** save how much each position in srcText should be moved to arrive at corresponding position in dest */
-  TreeMap<Integer, Integer> posToShift = new TreeMap<>();
+  /**
+   * Shift table: positions shiftPos[i] &lt;= pos &lt; shiftPos[i+1] in the src text should be moved by shiftValue[i] to arrive at the corresponding position in dst.
+   * Positions before shiftPos[0] are not moved. The positions are strictly increasing.
+   */
+  int[] shiftPos = new int[16], shiftValue = new int[16];
+
+  int shiftCount = 0;
 
   String dst;
 
+  /**
+   * How the parts of the texts that differ not only in whitespace are compared
+   */
+  public enum DiffMode {
+    /** diff characters with {@link DiffMatchPatch}; it returns a coarse diff if it runs into its timeout */
+    CHARACTER,
+    /** diff tokens, and characters only within changed parts, see {@link TokenDiff} */
+    TOKEN,
+    /** CHARACTER, unless the part to diff is longer than {@link TextSpanAligner#TOKEN_DIFF_THRESHOLD} characters; then TOKEN */
+    AUTO
+  }
+
+  /**
+   * Length from which {@link DiffMode#AUTO} diffs tokens. Character diffs keep more spans, but may run into the timeout of {@link DiffMatchPatch} on long texts.
+   */
+  public static final int TOKEN_DIFF_THRESHOLD = 10000;
+
+  /** state while constructing the shift table: current position in src, and shift at that position */
+  private int pos = 0, accumulatedAdjust = 0;
+
+  /** state while constructing the shift table: operation of the last diff */
+  private Operation lastOperation = null;
+
   public TextSpanAligner(String src, String dst) {
+    this(src, dst, DiffMode.AUTO);
+  }
 
-    DiffMatchPatch dmp = new DiffMatchPatch();
-    // use google-diff-match-patch to find differences in the text
-    int accumulatedAdjust = 0, pos = 0;
-    for (Diff d : dmp.diff_main(src, dst)) {
-      // operations are relative to src string
-      if (d.operation == Operation.DELETE) {
-        accumulatedAdjust -= d.text.length();
-        pos += d.text.length();
-      } else if (d.operation == Operation.EQUAL) {
-        pos += d.text.length();
-      } else if (d.operation == Operation.INSERT) {
-        accumulatedAdjust += d.text.length();
+  public TextSpanAligner(String src, String dst, DiffMode diffMode) {
+    // usually the texts differ only in whitespace, so handle that without a diff
+    int[] prefixEnd = addWhitespaceDiffs(src, 0, src.length(), dst, 0, dst.length());
+    if (prefixEnd[0] < src.length() || prefixEnd[1] < dst.length()) {
+      // find the suffixes which differ only in whitespace
+      int srcEnd = src.length(), dstEnd = dst.length();
+      while (srcEnd > prefixEnd[0] || dstEnd > prefixEnd[1]) {
+        if (srcEnd > prefixEnd[0] && dstEnd > prefixEnd[1] && src.charAt(srcEnd - 1) == dst.charAt(dstEnd - 1)) {
+          srcEnd--;
+          dstEnd--;
+          continue;
+        }
+        int oldSrcEnd = srcEnd, oldDstEnd = dstEnd;
+        while (srcEnd > prefixEnd[0] && Character.isWhitespace(src.charAt(srcEnd - 1))) {
+          srcEnd--;
+        }
+        while (dstEnd > prefixEnd[1] && Character.isWhitespace(dst.charAt(dstEnd - 1))) {
+          dstEnd--;
+        }
+        if (srcEnd == oldSrcEnd && dstEnd == oldDstEnd) {
+          break;
+        }
       }
-      posToShift.put(pos, accumulatedAdjust);
-    }
-    if (posToShift.size() > 0) {
-      int firstShift = posToShift.ceilingEntry(0).getValue();
-      if (firstShift < 0) {
-        posToShift.put(0, firstShift);
+
+      // find differences in the rest of the text
+      String srcPart = src.substring(prefixEnd[0], srcEnd), dstPart = dst.substring(prefixEnd[1], dstEnd);
+      if (diffMode == DiffMode.AUTO) {
+        diffMode = Math.max(srcPart.length(), dstPart.length()) > TOKEN_DIFF_THRESHOLD ? DiffMode.TOKEN : DiffMode.CHARACTER;
+      }
+      List<Diff> diffs = diffMode == DiffMode.TOKEN ? TokenDiff.diff(srcPart, dstPart) : new DiffMatchPatch().diff_main(srcPart, dstPart);
+      for (Diff d : diffs) {
+        addDiff(d.operation, d.text.length());
       }
+      addWhitespaceDiffs(src, srcEnd, src.length(), dst, dstEnd, dst.length());
+    }
+
+    if (shiftCount > 0 && shiftValue[0] < 0 && shiftPos[0] > 0) {
+      // shift the beginning like the first difference
+      System.arraycopy(shiftPos, 0, shiftPos, 1, shiftCount);
+      System.arraycopy(shiftValue, 0, shiftValue, 1, shiftCount);
+      shiftPos[0] = 0;
+      shiftCount++;
     }
 
     this.dst = dst;
   }
 
+  /**
+   * Add diffs for the longest prefixes of src[srcStart, srcEnd) and dst[dstStart, dstEnd) which differ only in whitespace.
+   * Runs of whitespace that differ are deleted from src and inserted from dst.
+   * @return end of the prefix in src and in dst
+   */
+  private int[] addWhitespaceDiffs(String src, int srcStart, int srcEnd, String dst, int dstStart, int dstEnd) {
+    int i = srcStart, j = dstStart, equal = 0;
+    while (true) {
+      if (i < srcEnd && j < dstEnd && src.charAt(i) == dst.charAt(j)) {
+        equal++;
+        i++;
+        j++;
+        continue;
+      }
+      int deleted = 0, inserted = 0;
+      while (i + deleted < srcEnd && Character.isWhitespace(src.charAt(i + deleted))) {
+        deleted++;
+      }
+      while (j + inserted < dstEnd && Character.isWhitespace(dst.charAt(j + inserted))) {
+        inserted++;
+      }
+      if (deleted == 0 && inserted == 0) {
+        break;
+      }
+      addDiff(Operation.EQUAL, equal);
+      addDiff(Operation.DELETE, deleted);
+      addDiff(Operation.INSERT, inserted);
+      equal = 0;
+      i += deleted;
+      j += inserted;
+    }
+    addDiff(Operation.EQUAL, equal);
+    return new int[] { i, j };
+  }
+
+  /**
+   * Update the shift table with the next diff; operations are relative to src string
+   */
+  private void addDiff(Operation operation, int length) {
+    if (length == 0) {
+      return;
+    }
+    if (operation == Operation.DELETE && lastOperation == Operation.DELETE) {
+      // adjacent deletions, e.g. of a word and the whitespace after it, are one deletion for the shift table
+      shiftCount--;
+    }
+    lastOperation = operation;
+    if (operation == Operation.DELETE) {
+      accumulatedAdjust -= length;
+      pos += length;
+    } else if (operation == Operation.EQUAL) {
+      pos += length;
+    } else if (operation == Operation.INSERT) {
+      accumulatedAdjust += length;
+    }
+    putShift(pos, accumulatedAdjust);
+  }
+
+  /**
+   * Set the shift for positions from pos on; pos must not be smaller than the last one
+   */
+  private void putShift(int pos, int shift) {
+    if (shiftCount > 0 && shiftPos[shiftCount - 1] == pos) {
+      shiftValue[shiftCount - 1] = shift;
+      return;
+    }
+    // keep one free entry for the constructor
+    if (shiftCount + 1 >= shiftPos.length) {
+      shiftPos = Arrays.copyOf(shiftPos, 2 * shiftPos.length);
+      shiftValue = Arrays.copyOf(shiftValue, 2 * shiftValue.length);
+    }
+    shiftPos[shiftCount] = pos;
+    shiftValue[shiftCount] = shift;
+    shiftCount++;
+  }
+
+  /**
+   * Find the last shift table entry with a position &lt;= pos. Searches forward from hint, so that ascending positions take amortized constant time.
+   * @param hint index of an entry; the result of the last call
+   * @return index of the entry, or -1
+   */
+  private int floorIndex(int pos, int hint) {
+    if (hint < 0 || hint >= shiftCount || shiftPos[hint] > pos) {
+      // binary search
+      int lo = 0, hi = shiftCount - 1, result = -1;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        if (shiftPos[mid] <= pos) {
+          result = mid;
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      return result;
+    }
+    while (hint + 1 < shiftCount && shiftPos[hint + 1] <= pos) {
+      hint++;
+    }
+    return hint;
+  }
+
+  private int shiftAt(int idx) {
+    return idx < 0 ? 0 : shiftValue[idx];
+  }
+
+  /**
+   * @return start position in dst corresponding to a start position in src
+   */
+  public int alignStart(int start) {
+    return start + shiftAt(floorIndex(start, -1));
+  }
+
+  /**
+   * @return end position in dst corresponding to an end position in src
+   */
+  public int alignEnd(int end) {
+    return end + shiftAt(floorIndex(end - 1, -1));
+  }
+
   /**
    * Align a text span according to the src and dst text which were given to the constructor.
    * @param tr
@@ -71,23 +243,8 @@ public class TextSpanAligner<T extends TextSpan> {
     }
     @SuppressWarnings("unchecked")
     T result = (T) clone;
-    Entry<Integer, Integer> entry;
-    // adjust start
-    entry = posToShift.floorEntry(result.start);
-    if (entry != null) {
-      Integer shiftStart = entry.getValue();
-      if (shiftStart != null) {
-        result.start += shiftStart;
-      }
-    }
-    // adjust end
-    entry = posToShift.floorEntry(result.end - 1);
-    if (entry != null) {
-      Integer shiftEnd = entry.getValue();
-      if (shiftEnd != null) {
-        result.end += shiftEnd;
-      }
-    }
+    result.start = alignStart(result.start);
+    result.end = alignEnd(result.end);
     // update text and add to result
     result.text = dst;
     return result;
@@ -101,7 +258,7 @@ public class TextSpanAligner<T extends TextSpan> {
    */
   public List<T> align(List<T> src) {
     if (src == null || src.size() == 0) return src;
-    List<T> result = new ArrayList<T>();
+    List<T> result = new ArrayList<T>(src.size());
 
     for (T tr : src) {
       result.add(align(tr));
@@ -110,6 +267,44 @@ public class TextSpanAligner<T extends TextSpan> {
     return result;
   }
 
+  /**
+   * Align text spans without copying them: start, end and text are changed. Null elements are skipped.
+   * It is fastest if the spans are sorted by start.
+   * @param spans
+   */
+  public void alignInPlace(List<? extends TextSpan> spans) {
+    int startIdx = -1, endIdx = -1;
+    for (TextSpan span : spans) {
+      if (span == null) {
+        continue;
+      }
+      startIdx = floorIndex(span.start, startIdx);
+      endIdx = floorIndex(span.end - 1, endIdx);
+      span.start += shiftAt(startIdx);
+      span.end += shiftAt(endIdx);
+      span.text = dst;
+    }
+  }
+
+  /**
+   * Align text spans given as arrays. It is fastest if the spans are sorted by start.
+   * The output arrays may be the same as the input arrays.
+   * @param starts
+   * @param ends
+   * @param count number of spans
+   * @param alignedStarts output
+   * @param alignedEnds output
+   */
+  public void align(int[] starts, int[] ends, int count, int[] alignedStarts, int[] alignedEnds) {
+    int startIdx = -1, endIdx = -1;
+    for (int i = 0; i < count; i++) {
+      startIdx = floorIndex(starts[i], startIdx);
+      endIdx = floorIndex(ends[i] - 1, endIdx);
+      alignedStarts[i] = starts[i] + shiftAt(startIdx);
+      alignedEnds[i] = ends[i] + shiftAt(endIdx);
+    }
+  }
+
   public static void main(String[] args) {
     // string which is used to create the TextSpan objects
     String str1 = "\n abc def ghi";
@@ -0,0 +1,280 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tools.aligner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tools.aligner.DiffMatchPatch.Diff;
+import tools.aligner.DiffMatchPatch.Operation;
+
+/**
+ * Diff of two texts on the level of tokens, for long texts where {@link DiffMatchPatch#diff_main(String, String)} runs into its timeout.
+ * A token is a run of letters and digits, a run of whitespace, or any other character.
+ *
+ * Like {@link DiffMatchPatch#diff_linesToChars(String, String)} does for lines, every distinct token is mapped to a number.
+ * Tokens that occur exactly once in both texts are used as anchors (as in patience diff): the longest sequence of anchors that
+ * appears in the same order in both texts is taken as equal, and the windows between the anchors are diffed recursively.
+ * Windows without anchors are diffed by {@link DiffMatchPatch}, first on the level of tokens, and then on the level of characters for
+ * the tokens that changed.
+ *
+ * @author Thomas Rebele
+ */
+public class TokenDiff {
+
+  private final String text1, text2;
+
+  /** token numbers of both texts, and the start of every token (with the text length at the end) */
+  private final int[] tokens1, tokens2, offsets1, offsets2;
+
+  /** per token number: occurrences in the current windows of text1 and text2, and last position in text2 */
+  private final int[] count1, count2, pos2;
+
+  private final DiffMatchPatch dmp = new DiffMatchPatch();
+
+  private final List<Diff> diffs = new ArrayList<>();
+
+  /** equal part of text1 which was not yet added to diffs */
+  private int equalStart = 0, equalEnd = 0;
+
+  /**
+   * Compute the differences between two texts.
+   * @return list of diffs, like {@link DiffMatchPatch#diff_main(String, String)}
+   */
+  public static List<Diff> diff(String text1, String text2) {
+    return new TokenDiff(text1, text2).diffs;
+  }
+
+  private TokenDiff(String text1, String text2) {
+    this.text1 = text1;
+    this.text2 = text2;
+
+    Map<String, Integer> tokenToNumber = new HashMap<>();
+    int[][] result = tokenize(text1, tokenToNumber);
+    tokens1 = result[0];
+    offsets1 = result[1];
+    result = tokenize(text2, tokenToNumber);
+    tokens2 = result[0];
+    offsets2 = result[1];
+
+    count1 = new int[tokenToNumber.size()];
+    count2 = new int[tokenToNumber.size()];
+    pos2 = new int[tokenToNumber.size()];
+
+    diff(0, tokens1.length, 0, tokens2.length);
+    flushEqual();
+  }
+
+  /**
+   * Split a text into tokens
+   * @param tokenToNumber maps every token to a number; new tokens are added
+   * @return the token numbers, and the start offsets of the tokens followed by the text length
+   */
+  private static int[][] tokenize(String text, Map<String, Integer> tokenToNumber) {
+    int[] tokens = new int[16], offsets = new int[17];
+    int count = 0;
+    for (int start = 0, end; start < text.length(); start = end) {
+      char c = text.charAt(start);
+      end = start + 1;
+      if (Character.isLetterOrDigit(c)) {
+        while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) {
+          end++;
+        }
+      } else if (Character.isWhitespace(c)) {
+        while (end < text.length() && Character.isWhitespace(text.charAt(end))) {
+          end++;
+        }
+      }
+      if (count == tokens.length) {
+        tokens = Arrays.copyOf(tokens, 2 * count);
+        offsets = Arrays.copyOf(offsets, 2 * count + 1);
+      }
+      tokens[count] = tokenToNumber.computeIfAbsent(text.substring(start, end), k -> tokenToNumber.size());
+      offsets[count] = start;
+      count++;
+    }
+    offsets[count] = text.length();
+    return new int[][] { Arrays.copyOf(tokens, count), Arrays.copyOf(offsets, count + 1) };
+  }
+
+  /**
+   * Diff the tokens from1 (inclusive) to to1 (exclusive) of text1 with the tokens from2 to to2 of text2
+   */
+  private void diff(int from1, int to1, int from2, int to2) {
+    // common prefix and suffix
+    int prefix = 0;
+    while (from1 + prefix < to1 && from2 + prefix < to2 && tokens1[from1 + prefix] == tokens2[from2 + prefix]) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (from1 + prefix < to1 - suffix && from2 + prefix < to2 - suffix && tokens1[to1 - suffix - 1] == tokens2[to2 - suffix - 1]) {
+      suffix++;
+    }
+    addEqual(from1, from1 + prefix);
+    from1 += prefix;
+    from2 += prefix;
+    to1 -= suffix;
+    to2 -= suffix;
+
+    if (from1 == to1 || from2 == to2) {
+      addDiffs(from1, to1, from2, to2);
+    } else {
+      // unique tokens of both windows, in the order of text1
+      for (int i = from1; i < to1; i++) {
+        count1[tokens1[i]]++;
+      }
+      for (int j = from2; j < to2; j++) {
+        count2[tokens2[j]]++;
+        pos2[tokens2[j]] = j;
+      }
+      int[] anchors1 = new int[Math.min(to1 - from1, to2 - from2)];
+      int anchorCount = 0;
+      for (int i = from1; i < to1; i++) {
+        int token = tokens1[i];
+        if (count1[token] == 1 && count2[token] == 1) {
+          anchors1[anchorCount++] = i;
+        }
+      }
+      for (int i = from1; i < to1; i++) {
+        count1[tokens1[i]] = 0;
+      }
+      for (int j = from2; j < to2; j++) {
+        count2[tokens2[j]] = 0;
+      }
+
+      int[] anchors = longestIncreasing(anchors1, anchorCount);
+      if (anchors.length == 0) {
+        addTokenDiffs(from1, to1, from2, to2);
+      } else {
+        // recursion into the windows between the anchors
+        int last1 = from1, last2 = from2;
+        for (int i : anchors) {
+          int j = pos2[tokens1[i]];
+          diff(last1, i, last2, j);
+          addEqual(i, i + 1);
+          last1 = i + 1;
+          last2 = j + 1;
+        }
+        diff(last1, to1, last2, to2);
+      }
+    }
+
+    addEqual(to1, to1 + suffix);
+  }
+
+  /**
+   * Patience sorting: longest subsequence of the anchors whose positions in text2 are increasing
+   * @param anchors1 positions of the anchors in text1, ascending
+   * @return positions in text1 of the subsequence
+   */
+  private int[] longestIncreasing(int[] anchors1, int count) {
+    // tails[k]: index of the anchor with the smallest position in text2 that ends an increasing subsequence of length k+1
+    int[] tails = new int[count], predecessor = new int[count];
+    int length = 0;
+    for (int a = 0; a < count; a++) {
+      int j = pos2[tokens1[anchors1[a]]];
+      int lo = 0, hi = length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (pos2[tokens1[anchors1[tails[mid]]]] < j) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      predecessor[a] = lo > 0 ? tails[lo - 1] : -1;
+      tails[lo] = a;
+      if (lo == length) {
+        length++;
+      }
+    }
+    int[] result = new int[length];
+    for (int k = length - 1, a = length > 0 ? tails[length - 1] : -1; k >= 0; k--, a = predecessor[a]) {
+      result[k] = anchors1[a];
+    }
+    return result;
+  }
+
+  /**
+   * Diff the tokens from1 to to1 of text1 and from2 to to2 of text2 with {@link DiffMatchPatch}, where every token is represented by a
+   * character. Then diff the characters of the changed tokens, like the line mode of {@link DiffMatchPatch}.
+   */
+  private void addTokenDiffs(int from1, int to1, int from2, int to2) {
+    if (count1.length > Character.MAX_VALUE) {
+      // too many different tokens
+      addDiffs(from1, to1, from2, to2);
+      return;
+    }
+    StringBuilder chars1 = new StringBuilder(), chars2 = new StringBuilder();
+    for (int i = from1; i < to1; i++) {
+      chars1.append((char) tokens1[i]);
+    }
+    for (int j = from2; j < to2; j++) {
+      chars2.append((char) tokens2[j]);
+    }
+
+    int i = from1, j = from2, deleted = 0, inserted = 0;
+    for (Diff d : dmp.diff_main(chars1.toString(), chars2.toString(), false)) {
+      int length = d.text.length();
+      if (d.operation == Operation.EQUAL) {
+        addDiffs(i - deleted, i, j - inserted, j);
+        addEqual(i, i + length);
+        i += length;
+        j += length;
+        deleted = inserted = 0;
+      } else if (d.operation == Operation.DELETE) {
+        i += length;
+        deleted += length;
+      } else if (d.operation == Operation.INSERT) {
+        j += length;
+        inserted += length;
+      }
+    }
+    addDiffs(i - deleted, i, j - inserted, j);
+  }
+
+  /**
+   * Tokens from1 to to1 of text1 equal the corresponding tokens in text2
+   */
+  private void addEqual(int from1, int to1) {
+    if (from1 == to1) {
+      return;
+    }
+    if (offsets1[from1] != equalEnd) {
+      flushEqual();
+      equalStart = offsets1[from1];
+    }
+    equalEnd = offsets1[to1];
+  }
+
+  private void flushEqual() {
+    if (equalStart < equalEnd) {
+      diffs.add(new Diff(Operation.EQUAL, text1.substring(equalStart, equalEnd)));
+    }
+    equalStart = equalEnd = 0;
+  }
+
+  /**
+   * Diff the characters of the tokens from1 to to1 of text1 and from2 to to2 of text2
+   */
+  private void addDiffs(int from1, int to1, int from2, int to2) {
+    String window1 = text1.substring(offsets1[from1], offsets1[to1]);
+    String window2 = text2.substring(offsets2[from2], offsets2[to2]);
+    if (window1.isEmpty() && window2.isEmpty()) {
+      return;
+    }
+    flushEqual();
+    if (window1.isEmpty()) {
+      diffs.add(new Diff(Operation.INSERT, window2));
+    } else if (window2.isEmpty()) {
+      diffs.add(new Diff(Operation.DELETE, window1));
+    } else {
+      diffs.addAll(dmp.diff_main(window1, window2));
+    }
+  }
+}
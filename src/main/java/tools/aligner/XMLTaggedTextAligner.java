@@ -6,7 +6,6 @@ package tools.aligner;
 
 import java.io.IOException;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -48,14 +47,9 @@ public class XMLTaggedTextAligner {
 
         // do the alignment
         TextSpanAligner<EntityMention> aligner = new TextSpanAligner<>(input.text, alignTo.text);
-        List<EntityMention> alignedMentions = aligner.align(input.mentions);
-        input.mentions = new ArrayList<>();
+        aligner.alignInPlace(input.mentions);
         // keep valid mentions only
-        for (EntityMention em : alignedMentions) {
-          if (em.start >= 0 && em.end >= 0) {
-            input.mentions.add(em);
-          }
-        }
+        input.mentions.removeIf(em -> em.start < 0 || em.end < 0);
         input.text = alignTo.text;
         writer.write(null, input);
       }
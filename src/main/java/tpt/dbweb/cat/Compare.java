@@ -4,13 +4,20 @@
 
 package tpt.dbweb.cat;
 
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -19,10 +26,16 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.collections4.iterators.ReverseListIterator;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,15 +46,19 @@ import tpt.dbweb.cat.datatypes.EntityMention;
 import tpt.dbweb.cat.datatypes.MentionChains;
 import tpt.dbweb.cat.datatypes.MentionChains.Chain;
 import tpt.dbweb.cat.datatypes.TaggedText;
+import tpt.dbweb.cat.datatypes.TextSpan;
 import tpt.dbweb.cat.datatypes.iterators.CompareIterator;
 import tpt.dbweb.cat.datatypes.iterators.ComparePair;
 import tpt.dbweb.cat.datatypes.iterators.EntityMentionPos;
 import tpt.dbweb.cat.datatypes.iterators.EntityMentionPosIterator.PosType;
 import tpt.dbweb.cat.evaluation.ComparisonResult;
 import tpt.dbweb.cat.evaluation.EvaluationStatistics;
+import tpt.dbweb.cat.io.ConllReader;
 import tpt.dbweb.cat.io.TaggedTextXMLReader;
+import tpt.dbweb.cat.tools.EntityOverlap;
 import tpt.dbweb.cat.tools.ExtractInitials;
 import tpt.dbweb.cat.tools.MentionChainAligner;
+import tpt.dbweb.cat.tools.MentionChainAligner.Alignment;
 import tpt.dbweb.cat.tools.Utility;
 
 /**
@@ -68,11 +85,32 @@ public class Compare {
     public List<String> input = new ArrayList<>();
 
     @Parameter(names = "--format", description = "input format")
-    public InputFormat inputFormat = InputFormat.CoNLL;
+    public InputFormat inputFormat = InputFormat.XML;
+
+    @Parameter(names = "--conll-word-column", description = "column of the words in CoNLL input files (counting from 0)")
+    public int conllWordColumn = ConllReader.CONLL_2012_WORD_COLUMN;
+
+    @Parameter(names = "--snapshot", description = "store parsed XML input files in .catbin files next to them, and read them from there while the XML files are unchanged")
+    public boolean snapshot = false;
+
+    @Parameter(names = "--streaming", description = "parse XML input files with one XML stream reader (faster, but the articles need to be enclosed in a root element, e.g. <articles>)")
+    public boolean streaming = false;
 
     @Parameter(names = "--out")
     public String outputFile = null;
 
+    @Parameter(names = "--gzip", description = "compress the output with gzip (also done if the output file ends with .gz)")
+    public boolean gzip = false;
+
+    @Parameter(names = "--articles-per-page", description = "write the articles to several pages, and an index of the articles to the output file")
+    public int articlesPerPage = 0;
+
+    @Parameter(names = "--threads", description = "number of threads for comparing articles")
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "--chain-alignment", description = "how to align the mention chains of the annotators to those of the gold standard")
+    public Alignment chainAlignment = Alignment.GREEDY;
+
     boolean replaceNewlineWithBR = false;
 
     /**
@@ -90,6 +128,15 @@ public class Compare {
      */
     public boolean filterNMEEntities = true;
 
+    /**
+     * @return options for reading the XML input files
+     */
+    public TaggedTextXMLReader.Options readerOptions() {
+      TaggedTextXMLReader.Options result = new TaggedTextXMLReader.Options();
+      result.snapshot = snapshot;
+      result.streaming = streaming;
+      return result;
+    }
   }
 
   private final Options options;
@@ -112,23 +159,55 @@ public class Compare {
 
   public static void compare(Options options, List<ComparisonResult> evaluations) throws IOException {
     if (options.outputFile != null && options.input != null && options.input.size() > 0) {
-      Compare compare = new Compare(new Options());
+      Compare compare = new Compare(options);
       List<Path> paths = options.input.stream().map(str -> Paths.get(str)).collect(Collectors.toList());
-      compare.compareXML(paths, Paths.get(options.outputFile), evaluations);
+      if (options.inputFormat == InputFormat.CoNLL) {
+        compare.compareConll(paths, Paths.get(options.outputFile), evaluations);
+      } else {
+        compare.compareXML(paths, Paths.get(options.outputFile), evaluations);
+      }
+    }
+  }
+
+  /**
+   * Compare tagged texts that have already been read, and write the output XML files to the output file of the options.
+   * @param options
+   * @param corpora tagged texts of every input file of the options, in the same order; the articles are rendered from copies, see {@link #cleanUp(TaggedText)}
+   * @param evaluations
+   * @throws IOException
+   */
+  public static void compare(Options options, List<List<TaggedText>> corpora, List<ComparisonResult> evaluations) throws IOException {
+    if (options.outputFile != null) {
+      List<Iterator<TaggedText>> ttIts = corpora.stream().map(List::iterator).collect(Collectors.toList());
+      List<String> infos = options.input.stream().map(str -> Paths.get(str).toString()).collect(Collectors.toList());
+      log.info("comparing {}; writing output to {}", infos, options.outputFile);
+      new Compare(options).compare(ttIts, infos, Paths.get(options.outputFile), evaluations);
     }
   }
 
   /**
    * Do some cleanup on the text, e.g. removing unwanted entities
    * @param tt
+   * @return copy of the tagged text and its mentions, so that the comparison does not modify the input
    */
-  private void cleanUp(TaggedText tt) {
+  private TaggedText cleanUp(TaggedText tt) {
+    TaggedText result = new TaggedText();
+    result.id = tt.id;
+    result.text = tt.text;
+    result.infoMap = tt.infoMap;
+    result.mentions = new ArrayList<>(tt.mentions.size());
+    for (EntityMention em : tt.mentions) {
+      EntityMention copy = new EntityMention(em);
+      copy.min = em.min == null ? null : new TextSpan(em.min);
+      result.mentions.add(copy);
+    }
     // tt.mentions.removeIf(em ->
     // options.filterEntities.contains(em.entity));
     if (options.filterNMEEntities) {
-      tt.mentions.removeIf(em -> Utility.isNME(em.entity));
+      result.mentions.removeIf(em -> Utility.isNME(em.entity));
     }
-    tt.mentions.sort(null);
+    result.mentions.sort(null);
+    return result;
   }
 
   /**
@@ -153,8 +232,8 @@ public class Compare {
         return false;
       }
 
-      // print message when article texts are not the same
-      if (!tt0.text.equals(ttI.text)) {
+      // print message when article texts are not the same; otherwise use one instance of the text for all annotators
+      if (!ttI.shareText(tt0)) {
         if (log.isWarnEnabled()) {
           StringBuilder sb = new StringBuilder();
           sb.append("text of article is not the same (" + infos.get(0) + ", id " + tt0.id + " and " + infos.get(i) + ", id " + ttI.id + ")");
@@ -187,7 +266,7 @@ public class Compare {
     List<Iterator<TaggedText>> ttIts = new ArrayList<>();
     List<String> info = new ArrayList<>();
     try {
-      TaggedTextXMLReader ttxr = new TaggedTextXMLReader();
+      TaggedTextXMLReader ttxr = new TaggedTextXMLReader(options.readerOptions());
       for (int i = 0; i < files.size(); i++) {
         ttIts.add(ttxr.iteratePath(files.get(i)));
         info.add(files.get(i).toString());
@@ -195,30 +274,127 @@ public class Compare {
       compare(ttIts, info, out, evaluations);
     } catch (FileNotFoundException e) {
       log.error("file not found: {}", e.getMessage());
+    } finally {
+      closeAll(ttIts);
     }
   }
 
+  /**
+   * Load CoNLL files, compare them and write the output XML files to out. The documents are read one at a time.
+   * @param files
+   * @param out
+   * @param evaluations
+   * @throws IOException
+   */
+  public void compareConll(List<Path> files, Path out, List<ComparisonResult> evaluations) throws IOException {
+    log.info("comparing {}; writing output to {}", files, out);
+    List<Iterator<TaggedText>> ttIts = new ArrayList<>();
+    List<String> info = new ArrayList<>();
+    for (int i = 0; i < files.size(); i++) {
+      ttIts.add(ConllReader.iterateConllFile(files.get(i), options.conllWordColumn));
+      info.add(files.get(i).toString());
+    }
+    compare(ttIts, info, out, evaluations);
+  }
+
   public void compare(List<Iterator<TaggedText>> ttIts, List<String> infos, Path out, List<ComparisonResult> evaluations) throws IOException {
-    boolean docEvaluationNotFound = false;
+    if (options.articlesPerPage > 0) {
+      try (PagedArticleWriter writer = new PagedArticleWriter(out, loadTemplate(), printHeader(infos, evaluations))) {
+        compareArticles(ttIts, infos, evaluations, writer);
+      }
+      return;
+    }
+
+    PrintWriter ps = openOutput(out);
+    try {
+      compare(ttIts, infos, ps, evaluations);
+    } finally {
+      closeOutput(ps, out);
+    }
+  }
 
-    StringWriter sw = new StringWriter();
-    PrintWriter ps = new PrintWriter(sw);
-    ps.append("<annotators>\n");
+  /**
+   * Open the output file for writing, compressed with gzip if requested
+   * @param out
+   * @return
+   * @throws IOException
+   */
+  private PrintWriter openOutput(Path out) throws IOException {
+    OutputStream os = Files.newOutputStream(out);
+    if (options.gzip || out.getFileName().toString().endsWith(".gz")) {
+      os = new GZIPOutputStream(os, 1 << 16);
+    }
+    return new PrintWriter(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16));
+  }
+
+  private static void closeOutput(PrintWriter ps, Path out) throws IOException {
+    ps.close();
+    // PrintWriter does not throw exceptions, also not when closing
+    if (ps.checkError()) {
+      throw new IOException("error while writing " + out);
+    }
+  }
+
+  /**
+   * compare-template.xml, split at the &lt;article/&gt; placeholder
+   */
+  private static class Template {
+
+    String head, tail;
+  }
+
+  private static Template loadTemplate() throws IOException {
+    Template result = new Template();
+    String template = Utility.readResourceAsString("compare-template.xml");
+    String placeholder = "<article/>";
+    int placeholderPos = template.indexOf(placeholder);
+    if (placeholderPos < 0) {
+      log.error("compare template does not contain {}", placeholder);
+      result.head = template;
+      result.tail = "";
+    } else {
+      result.head = template.substring(0, placeholderPos);
+      result.tail = template.substring(placeholderPos + placeholder.length());
+    }
+    return result;
+  }
+
+  /**
+   * Compare the articles and write them into the template. The output is streamed, i.e. it is not kept in memory.
+   * @param ttIts
+   * @param infos
+   * @param ps
+   * @param evaluations
+   * @throws IOException
+   */
+  public void compare(List<Iterator<TaggedText>> ttIts, List<String> infos, PrintWriter ps, List<ComparisonResult> evaluations) throws IOException {
+    Template template = loadTemplate();
+    ps.print(template.head);
+    ps.print(printHeader(infos, evaluations));
+    compareArticles(ttIts, infos, evaluations, article -> ps.print(article.xml));
+    ps.print(template.tail);
+  }
+
+  /**
+   * Print annotators and their overall evaluation
+   */
+  private String printHeader(List<String> infos, List<ComparisonResult> evaluations) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<annotators>\n");
     // load files and print annotator info
-    for (int i = 0; i < ttIts.size(); i++) {
-      ps.append("\t<annotator id='" + i + "' file='");
-      ps.append(StringEscapeUtils.escapeXml11(infos.get(i)));
-      ps.append("'/>\n");
+    for (int i = 0; i < infos.size(); i++) {
+      sb.append("\t<annotator id='" + i + "' file='");
+      sb.append(StringEscapeUtils.escapeXml11(infos.get(i)));
+      sb.append("'/>\n");
     }
-    ps.append("</annotators>\n");
+    sb.append("</annotators>\n");
 
     // print evaluation
-    List<Map<String, EvaluationStatistics>> evals = new ArrayList<>();
-    Map<String, EvaluationStatistics> eval;
     if (evaluations != null) {
+      List<Map<String, EvaluationStatistics>> evals = new ArrayList<>();
       for (int i = 0; i < evaluations.size(); i++) {
         ComparisonResult combinedEvaluations = evaluations.get(i).combine();
-        eval = new TreeMap<>();
+        Map<String, EvaluationStatistics> eval = new TreeMap<>();
         evals.add(eval);
 
         // type is macro / micro
@@ -229,58 +405,259 @@ public class Compare {
           }
         }
       }
-      ps.print(printMetrics(evals));
-      evals.clear();
+      sb.append(printMetrics(evals));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Receives the compared articles in the order of the input
+   */
+  private interface ArticleWriter {
+
+    void write(ArticleOutput article) throws IOException;
+  }
+
+  /**
+   * Writes the articles to pages of at most articlesPerPage articles. The output file becomes an index page, with a link and the metrics of every article.
+   * The pages are named like the output file, with "-&lt;page number&gt;" before the extension.
+   */
+  private class PagedArticleWriter implements ArticleWriter, Closeable {
+
+    private final Path out;
+
+    private final Template template;
+
+    private final String header;
+
+    private final PrintWriter index;
+
+    private PrintWriter page = null;
+
+    private Path pagePath = null;
+
+    private int articles = 0, pages = 0;
+
+    PagedArticleWriter(Path out, Template template, String header) throws IOException {
+      this.out = out;
+      this.template = template;
+      this.header = header;
+      index = openOutput(out);
+      index.print(template.head);
+      index.print(header);
+    }
+
+    @Override
+    public void write(ArticleOutput article) throws IOException {
+      if (page == null || articles % options.articlesPerPage == 0) {
+        closePage();
+        pagePath = getPagePath(out, ++pages);
+        page = openOutput(pagePath);
+        page.print(template.head);
+        page.print(header);
+      }
+      page.print(article.xml);
+      articles++;
+
+      index.print("  <article-ref id='");
+      index.print(StringEscapeUtils.escapeXml10(article.id));
+      index.print("' href='");
+      String href = percentEncode(pagePath.getFileName().toString()) + "#" + percentEncode(article.id == null ? "" : article.id);
+      index.print(StringEscapeUtils.escapeXml10(href));
+      index.print("'>\n");
+      if (article.metrics != null) {
+        index.print(article.metrics);
+      }
+      index.print("  </article-ref>\n");
+    }
+
+    private void closePage() throws IOException {
+      if (page != null) {
+        page.print(template.tail);
+        closeOutput(page, pagePath);
+        page = null;
+      }
     }
 
-    // print comparison of articles
-    while (ttIts.stream().allMatch(it -> it.hasNext())) {
-      List<TaggedText> tts = ttIts.stream().map(it -> it.next()).collect(Collectors.toList());
-      tts.forEach(tt -> cleanUp(tt));
-      if (!checkTaggedTexts(infos, tts)) {
-        break;
+    @Override
+    public void close() throws IOException {
+      try {
+        closePage();
+      } finally {
+        index.print(template.tail);
+        closeOutput(index, out);
       }
+      log.info("wrote {} articles to {} pages, index {}", articles, pages, out);
+    }
+  }
 
-      // do comparison and write to output
-      ps.print("  <article id='");
-      ps.print(tts.get(0).id);
-      ps.println("'>");
+  /**
+   * Percent-encode all characters of a string except the unreserved characters of RFC 3986, so it can be used as part of a URL
+   * @param str
+   * @return
+   */
+  static String percentEncode(String str) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : str.getBytes(StandardCharsets.UTF_8)) {
+      char c = (char) (b & 0xff);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~') {
+        sb.append(c);
+      } else {
+        sb.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16))).append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+      }
+    }
+    return sb.toString();
+  }
 
-      ps.print(compare(tts));
-      ps.println();
+  /**
+   * @return path of a page, e.g. out-1.xml for out.xml
+   */
+  static Path getPagePath(Path out, int page) {
+    String name = out.getFileName().toString();
+    int extension = name.endsWith(".gz") ? name.lastIndexOf('.', name.length() - 4) : name.lastIndexOf('.');
+    if (extension <= 0) {
+      extension = name.length();
+    }
+    return out.resolveSibling(name.substring(0, extension) + "-" + page + name.substring(extension));
+  }
 
-      // print evaluation of article
-      if (evaluations != null) {
-        docEvaluationNotFound = true;
-        for (int i = 0; i < evaluations.size(); i++) {
-          eval = evaluations.get(i).docidToMetricToResult.get(tts.get(0).id);
-          evals.add(eval);
-          if (eval != null) {
-            docEvaluationNotFound = false;
+  /**
+   * Compare the articles, and pass them to the writer.
+   * Articles are rendered in parallel, but written in the order of the input.
+   * The iterators are closed afterwards, also if they have not been iterated completely.
+   */
+  private void compareArticles(List<Iterator<TaggedText>> ttIts, List<String> infos, List<ComparisonResult> evaluations, ArticleWriter writer)
+      throws IOException {
+    boolean docEvaluationNotFound = false;
+    ExecutorService executor = options.threads > 1 ? Executors.newFixedThreadPool(options.threads) : null;
+    Deque<Future<ArticleOutput>> window = new ArrayDeque<>();
+    int maxInFlight = Math.max(1, 4 * options.threads);
+    try {
+      while (true) {
+        boolean hasNext = ttIts.stream().allMatch(it -> it.hasNext());
+        if (hasNext) {
+          List<TaggedText> tts = ttIts.stream().map(it -> it.next()).collect(Collectors.toList());
+          if (executor != null) {
+            window.add(executor.submit(() -> renderArticle(infos, tts, evaluations)));
+          } else {
+            window.add(CompletableFuture.completedFuture(renderArticle(infos, tts, evaluations)));
           }
         }
-        if (docEvaluationNotFound == false) {
-          ps.print(printMetrics(evals));
-        } else {
+        if (window.isEmpty()) {
+          break;
+        }
+        if (hasNext && window.size() < maxInFlight) {
+          continue;
+        }
+
+        // write oldest article
+        ArticleOutput article = waitFor(window.poll());
+        if (!article.accepted) {
+          break;
+        }
+        writer.write(article);
+        docEvaluationNotFound = article.evaluationNotFound;
+        if (docEvaluationNotFound) {
+          log.warn("evaluation not found for {}", article.id);
         }
-      } else {
-        docEvaluationNotFound = true;
       }
-      if (docEvaluationNotFound) {
-        log.warn("evaluation not found for {}", tts.get(0).id);
+    } finally {
+      window.forEach(f -> f.cancel(true));
+      if (executor != null) {
+        executor.shutdownNow();
       }
-      ps.println("  </article>");
+      closeAll(ttIts);
     }
 
     if (docEvaluationNotFound && evaluations != null && evaluations.size() > 0) {
       log.warn("available evaluations: {}", evaluations.get(0).docidToMetricToResult.keySet());
     }
+  }
 
-    // load template and replace <article/>
-    String template = Utility.readResourceAsString("compare-template.xml");
-    sw.toString();
-    String output = template.replace("<article/>", sw.toString());
-    FileUtils.writeStringToFile(out.toFile(), output);
+  /**
+   * Close the iterators which hold resources, e.g. open files
+   * @param ttIts
+   */
+  private static void closeAll(List<Iterator<TaggedText>> ttIts) {
+    ttIts.stream().filter(it -> it instanceof Closeable).forEach(it -> IOUtils.closeQuietly((Closeable) it));
+  }
+
+  /**
+   * Comparison of an article, which is rendered by a worker thread
+   */
+  private static class ArticleOutput {
+
+    String id;
+
+    /** false if the article cannot be compared, i.e. the comparison should stop */
+    boolean accepted;
+
+    boolean evaluationNotFound;
+
+    String xml;
+
+    /** evaluation of the article, or null */
+    String metrics;
+  }
+
+  /**
+   * Compare the tagged texts of an article and print the result. Might be called from several threads.
+   * @param infos
+   * @param input tagged texts of the article, one per annotator; the cleanup works on copies
+   * @param evaluations
+   * @return
+   */
+  private ArticleOutput renderArticle(List<String> infos, List<TaggedText> input, List<ComparisonResult> evaluations) {
+    ArticleOutput result = new ArticleOutput();
+    result.id = input.get(0).id;
+    List<TaggedText> tts = input.stream().map(this::cleanUp).collect(Collectors.toList());
+    result.accepted = checkTaggedTexts(infos, tts);
+    if (!result.accepted) {
+      return result;
+    }
+
+    // do comparison and write to output
+    StringBuilder sb = new StringBuilder();
+    sb.append("  <article id='");
+    sb.append(tts.get(0).id);
+    sb.append("'>\n");
+
+    sb.append(compare(tts));
+    sb.append("\n");
+
+    // print evaluation of article
+    result.evaluationNotFound = true;
+    if (evaluations != null) {
+      List<Map<String, EvaluationStatistics>> evals = new ArrayList<>();
+      for (int i = 0; i < evaluations.size(); i++) {
+        Map<String, EvaluationStatistics> eval = evaluations.get(i).docidToMetricToResult.get(tts.get(0).id);
+        evals.add(eval);
+        if (eval != null) {
+          result.evaluationNotFound = false;
+        }
+      }
+      if (result.evaluationNotFound == false) {
+        result.metrics = printMetrics(evals);
+        sb.append(result.metrics);
+      }
+    }
+    sb.append("  </article>\n");
+    result.xml = sb.toString();
+    return result;
+  }
+
+  private static ArticleOutput waitFor(Future<ArticleOutput> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
   }
 
   private String printMetrics(List<Map<String, EvaluationStatistics>> evaluations) {
@@ -324,18 +701,20 @@ public class Compare {
     // chains for both documents
     List<MentionChains> chains = mentions.stream().map(eml -> new MentionChains(eml)).collect(Collectors.toList());
 
-    // align chains to chain0
+    // align chains to chain0; the overlap of all annotators is calculated in one sweep
+    EntityOverlap overlap = new EntityOverlap(tts.get(0).text, mentions);
+    MentionChainAligner aligner = new MentionChainAligner();
     for (int i = 1; i < chains.size(); i++) {
-      Map<String, String> map = new MentionChainAligner().guessEntityMapGreedy(tts.get(0), tts.get(i));
+      Map<Integer, Integer> map = aligner.guessEntityIdMap(overlap, i, options.chainAlignment);
 
-      int unmappedIdx = chains.get(0).entityToChain.size() + 1;
-      for (String entity : chains.get(i).entityToChain.keySet()) {
-        String mappedEntity = map.get(entity);
-        Chain entityChainI = chains.get(i).entityToChain.get(entity);
+      int unmappedIdx = chains.get(0).entityIdToChain.size() + 1;
+      for (Entry<Integer, Chain> e : chains.get(i).entityIdToChain.entrySet()) {
+        Integer mappedEntity = map.get(e.getKey());
+        Chain entityChainI = e.getValue();
         if (mappedEntity == null) {
           entityChainI.idx = unmappedIdx++;
         } else {
-          Chain entityChain0 = chains.get(0).entityToChain.get(mappedEntity);
+          Chain entityChain0 = chains.get(0).entityIdToChain.get(mappedEntity);
           if (entityChain0 == null) {
             entityChainI.idx = unmappedIdx++;
           } else {
@@ -385,9 +764,10 @@ public class Compare {
     CompareIterator cmpIt = new CompareIterator(tts.get(0).text, tts.get(0).id, mentions);
     ComparePair last = null;
     for (ComparePair pair : Utility.iterable(cmpIt)) {
-      log.trace("{}, text {}", pair, tts.get(0).text.substring(pair.start, pair.end));
+      String span = tts.get(0).text.substring(pair.start, pair.end);
+      log.trace("{}, text {}", pair, span);
       // escape span that was compared
-      String escaped = StringEscapeUtils.escapeXml10(tts.get(0).text.substring(pair.start, pair.end));
+      String escaped = StringEscapeUtils.escapeXml10(span);
       if (options.replaceNewlineWithBR) {
         escaped = escaped.replace("\n\n\n", "<br/>");
         escaped = escaped.replace("\n\n", "<br/>");
@@ -510,7 +890,7 @@ public class Compare {
         }
       }
       if (emI != null && emI.entity != null) {
-        if (em0 != null && emI.entity.equals(em0.entity)) {
+        if (emI.sameEntity(em0)) {
           eval = "correct";
         } else {
           if (em0 == null) {
@@ -8,8 +8,14 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import org.apache.commons.collections4.IteratorUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,8 +24,13 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.ParametersDelegate;
 
+import tpt.dbweb.cat.datatypes.TaggedText;
 import tpt.dbweb.cat.evaluation.ComparisonResult;
 import tpt.dbweb.cat.evaluation.ReferenceEvaluator;
+import tpt.dbweb.cat.io.ConllReader;
+import tpt.dbweb.cat.io.StoredCorpus;
+import tpt.dbweb.cat.io.TaggedTextXMLReader;
+import tpt.dbweb.cat.tools.ProcessRunner;
 
 /**
  *
@@ -41,6 +52,9 @@ public class Main {
     @Parameter(names = "--run-rcs", description = "run reference-coreference-scorers")
     public boolean runReferenceCoreferenceScorers = true;
 
+    @Parameter(names = "--store", description = "keep the texts of the articles in memory-mapped temporary files instead of the heap, for corpora that do not fit into memory")
+    public boolean store = false;
+
     @ParametersDelegate
     Compare.Options compareOptions = new Compare.Options();
 
@@ -110,18 +124,149 @@ public class Main {
       paths.add(Paths.get(inputFile));
     }
 
+    ReferenceEvaluator.Options refEvalOptions = options.refEvalOptions;
+    // one runner for the application, so that all evaluations together stay within the limit of scorer.pl processes
+    ProcessRunner processRunner = ReferenceEvaluator.createProcessRunner(refEvalOptions);
+    if (options.compareOptions.inputFormat == Compare.InputFormat.CoNLL && options.runReferenceCoreferenceScorers
+        && (refEvalOptions.scorer != ReferenceEvaluator.Scorer.PERL || refEvalOptions.scoreCache != null)) {
+      // the native scorer and the score cache need the documents; parse every file once
+      int wordColumn = options.compareOptions.conllWordColumn;
+      List<List<TaggedText>> corpora = readCorpora(paths, path -> {
+        try {
+          return IteratorUtils.toList(ConllReader.iterateConllFile(path, wordColumn));
+        } catch (IOException e) {
+          log.error("{}: {}", path, e.toString());
+          return null;
+        }
+      });
+      if (corpora == null) {
+        System.exit(-1);
+      }
+      compare(options, processRunner, paths, corpora);
+      return;
+    }
+
+    if (options.compareOptions.inputFormat == Compare.InputFormat.CoNLL) {
+      // calculate measures of coreference chains; scorer.pl reads the files directly
+      List<ComparisonResult> cmp = new ArrayList<>();
+      if (options.runReferenceCoreferenceScorers) {
+        ReferenceEvaluator evaluator = new ReferenceEvaluator(refEvalOptions, processRunner);
+        for (int i = 1; i < paths.size(); i++) {
+          cmp.add(evaluator.compareConllFiles(paths.get(0), paths.get(i), null));
+        }
+      }
+
+      // compare files
+      Compare.compare(options.compareOptions, cmp);
+      return;
+    }
+
+    TaggedTextXMLReader reader = new TaggedTextXMLReader(options.compareOptions.readerOptions());
+    if (options.store) {
+      // stream every file once into a store; the evaluation and the comparison copy the articles to the heap when they use them
+      List<StoredCorpus> stores = storeCorpora(paths, reader);
+      if (stores == null) {
+        System.exit(-1);
+      }
+      try {
+        compare(options, processRunner, paths, stores.stream().map(StoredCorpus::asList).collect(Collectors.toList()));
+      } finally {
+        stores.stream().distinct().forEach(IOUtils::closeQuietly);
+      }
+      return;
+    }
+
+    // parse every file once; the evaluation and the comparison use the same tagged texts
+    List<List<TaggedText>> corpora = readCorpora(paths, reader::getTaggedText);
+    if (corpora == null) {
+      System.exit(-1);
+    }
+    compare(options, processRunner, paths, corpora);
+  }
+
+  /**
+   * Calculate the measures of coreference chains, and compare the corpora
+   * @param options
+   * @param processRunner runs scorer.pl
+   * @param paths input files
+   * @param corpora tagged texts of the input files
+   * @throws IOException
+   */
+  private static void compare(Options options, ProcessRunner processRunner, List<Path> paths, List<List<TaggedText>> corpora) throws IOException {
     // calculate measures of coreference chains
     List<ComparisonResult> cmp = new ArrayList<>();
     if (options.runReferenceCoreferenceScorers) {
-      ReferenceEvaluator evaluator = new ReferenceEvaluator(options.refEvalOptions);
+      ReferenceEvaluator evaluator = new ReferenceEvaluator(options.refEvalOptions, processRunner);
+      Path tmpDirectory = Paths.get(options.tmpDirectory + "/conll-format/");
       for (int i = 1; i < paths.size(); i++) {
-        cmp.add(evaluator.compareXMLFiles(paths.get(0), paths.get(i), Paths.get(options.tmpDirectory + "/conll-format/")));
+        cmp.add(evaluator.compare(corpora.get(0), paths.get(0).getFileName().toString(), corpora.get(i), paths.get(i).getFileName().toString(),
+            tmpDirectory));
       }
     }
 
     // compare files
-    Compare.compare(options.compareOptions, cmp);
+    Compare.compare(options.compareOptions, corpora, cmp);
+  }
+
+  /**
+   * Read the files concurrently. A file that is given several times is read only once.
+   * Documents of later files use the text instances of the documents with the same id in the first file, if the texts are equal.
+   * This is the only modification; afterwards scoring and rendering share the tagged texts, and work on copies where they change them.
+   * @param paths
+   * @param read returns the tagged texts of a file, or null if it could not be read
+   * @return lists of tagged texts, in the order of the paths, or null if a file could not be read
+   */
+  private static List<List<TaggedText>> readCorpora(List<Path> paths, Function<Path, List<TaggedText>> read) {
+    List<List<TaggedText>> corpora = readDistinct(paths, read);
+    if (corpora.contains(null)) {
+      return null;
+    }
+    for (int i = 1; i < corpora.size(); i++) {
+      TaggedText.shareTexts(corpora.get(0), corpora.get(i));
+    }
+    return corpora;
+  }
 
+  /**
+   * Stream the XML files concurrently into stores, which keep the texts in memory-mapped temporary files.
+   * A file that is given several times is read only once.
+   * @param paths
+   * @param reader
+   * @return stores, in the order of the paths, or null if a file could not be read; the caller needs to close them
+   */
+  private static List<StoredCorpus> storeCorpora(List<Path> paths, TaggedTextXMLReader reader) {
+    List<StoredCorpus> stores = readDistinct(paths, path -> {
+      try {
+        return StoredCorpus.create(reader.iteratePath(path));
+      } catch (IOException e) {
+        log.error("{}: {}", path, e.toString());
+        return null;
+      }
+    });
+    if (stores.contains(null)) {
+      stores.stream().filter(store -> store != null).distinct().forEach(IOUtils::closeQuietly);
+      return null;
+    }
+    return stores;
+  }
+
+  /**
+   * Read every distinct path once, concurrently
+   * @param paths
+   * @param read returns null if the file could not be read
+   * @return results in the order of the paths; null for the files that could not be read
+   */
+  private static <T> List<T> readDistinct(List<Path> paths, Function<Path, T> read) {
+    List<Path> distinctPaths = paths.stream().distinct().collect(Collectors.toList());
+    List<T> distinctResults = distinctPaths.parallelStream().map(read).collect(Collectors.toList());
+    Map<Path, T> pathToResult = new HashMap<>();
+    for (int i = 0; i < distinctPaths.size(); i++) {
+      if (distinctResults.get(i) == null) {
+        log.error("cannot read {}", distinctPaths.get(i));
+      }
+      pathToResult.put(distinctPaths.get(i), distinctResults.get(i));
+    }
+    return paths.stream().map(pathToResult::get).collect(Collectors.toList());
   }
 
 }
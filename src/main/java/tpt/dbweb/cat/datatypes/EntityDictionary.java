@@ -0,0 +1,84 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.datatypes;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps entity strings to dense int ids (0, 1, 2, ...) and back. Comparing ids is cheaper than comparing long entity strings.
+ * The dictionary is thread-safe, so parallel readers can share it. Looking up a known entity does not lock.
+ *
+ * @author Thomas Rebele
+ */
+public class EntityDictionary {
+
+  private static final EntityDictionary global = new EntityDictionary();
+
+  private final ConcurrentHashMap<String, Integer> entityToId = new ConcurrentHashMap<>();
+
+  /** id to entity; replaced by a larger copy when full */
+  private volatile String[] entities = new String[1024];
+
+  private int size = 0;
+
+  /**
+   * The global dictionary lives as long as the JVM and is never cleared, as {@link MentionTable}s and entity mentions keep its ids.
+   * It holds one string per distinct entity that has been read, so it grows with the number of distinct entities, not with the number of mentions.
+   * @return dictionary used by the readers and {@link EntityMention#getEntityId()}
+   */
+  public static EntityDictionary getGlobal() {
+    return global;
+  }
+
+  /**
+   * @return id of the entity, a new id if it is unknown; -1 for null
+   */
+  public int getId(String entity) {
+    if (entity == null) {
+      return -1;
+    }
+    Integer id = entityToId.get(entity);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = entityToId.get(entity);
+      if (id == null) {
+        id = size;
+        String[] array = entities;
+        if (size == array.length) {
+          array = Arrays.copyOf(array, 2 * size);
+        }
+        // the entity needs to be in the array before other threads can get its id
+        array[size++] = entity;
+        entities = array;
+        entityToId.put(entity, id);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * @return entity of an id; null for -1
+   */
+  public String getEntity(int id) {
+    return id < 0 ? null : entities[id];
+  }
+
+  /**
+   * @return the instance of the entity string stored in the dictionary
+   */
+  public String intern(String entity) {
+    return getEntity(getId(entity));
+  }
+
+  /**
+   * @return number of entities
+   */
+  public synchronized int size() {
+    return size;
+  }
+}
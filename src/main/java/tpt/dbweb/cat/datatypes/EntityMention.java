@@ -22,10 +22,17 @@ public class EntityMention extends TextSpan implements Cloneable {
     super(em);
     this.entity = em.entity;
     this.min = em.min;
+    this.entityId = em.entityId;
   }
 
   public String entity;
 
+  /**
+   * Id of the entity in the global entity dictionary, or -1 if not known yet. It is only used if the dictionary maps it to the current entity,
+   * so it stays correct if the entity is changed, or if threads call {@link #getEntityId()} concurrently.
+   */
+  private volatile int entityId = -1;
+
   public TextSpan min = null;
 
   public EntityMention referring = null;
@@ -58,6 +65,44 @@ public class EntityMention extends TextSpan implements Cloneable {
     return result;
   }
 
+  /**
+   * @return id of the entity in {@link EntityDictionary#getGlobal()}, -1 if the entity is null
+   */
+  public int getEntityId() {
+    String entity = this.entity;
+    if (entity == null) {
+      return -1;
+    }
+    EntityDictionary dict = EntityDictionary.getGlobal();
+    int id = entityId;
+    // usually the entity is the instance of the dictionary, so equals only compares the references
+    if (id < 0 || !entity.equals(dict.getEntity(id))) {
+      id = dict.getId(entity);
+      entityId = id;
+    }
+    return id;
+  }
+
+  /**
+   * Replace the entity by the instance stored in the global entity dictionary, and remember its id.
+   * Readers call this, so that equal entities share one string and comparisons can use the id.
+   */
+  public void internEntity() {
+    if (entity != null) {
+      EntityDictionary dict = EntityDictionary.getGlobal();
+      int id = dict.getId(entity);
+      entity = dict.getEntity(id);
+      entityId = id;
+    }
+  }
+
+  /**
+   * @return true if both mentions have the same entity (which is not null)
+   */
+  public boolean sameEntity(EntityMention o) {
+    return o != null && entity != null && o.entity != null && getEntityId() == o.getEntityId();
+  }
+
   public String getMention() {
     return super.spanString();
   }
@@ -67,6 +112,7 @@ public class EntityMention extends TextSpan implements Cloneable {
       return this;
     }
     EntityMention result = new EntityMention(this.text, min.start, min.end, entity);
+    result.entityId = entityId;
     result.min = min;
     result.infoMap = infoMap;
     return result;
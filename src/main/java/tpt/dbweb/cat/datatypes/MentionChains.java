@@ -18,29 +18,34 @@ public class MentionChains {
 
     public int idx;
 
+    /** id of the entity in the global {@link EntityDictionary} */
+    public int entityId;
+
     Set<EntityMention> mentions;
   }
 
   public MentionChains(List<EntityMention> mentions) {
     mentions.forEach(em -> {
       if (em.entity != null) {
-        this.entityToChain.compute(em.entity, (key, set) -> {
-          if (set == null) {
-            set = new Chain();
-            set.idx = this.entityToChain.size() + 1;
-          }
-
-          set.mentions = Utility.addToSet(set.mentions, em);
-          return set;
-        });
+        Chain chain = entityIdToChain.get(em.getEntityId());
+        if (chain == null) {
+          chain = new Chain();
+          chain.idx = this.entityIdToChain.size() + 1;
+          chain.entityId = em.getEntityId();
+          entityIdToChain.put(chain.entityId, chain);
+          entityToChain.put(em.entity, chain);
+        }
+        chain.mentions = Utility.addToSet(chain.mentions, em);
       }
     });
 
-    entityToChain.forEach((k, v) -> {
+    entityIdToChain.forEach((k, v) -> {
       v.mentions.forEach(em -> mentionToChain.put(em, v));
     });
   }
 
+  public Map<Integer, Chain> entityIdToChain = new HashMap<>();
+
   public Map<String, Chain> entityToChain = new HashMap<>();
 
   public Map<EntityMention, Chain> mentionToChain = new TreeMap<>();
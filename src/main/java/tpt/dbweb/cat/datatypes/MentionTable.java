@@ -0,0 +1,298 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.datatypes;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+/**
+ * Entity mentions of a text, stored column-wise in primitive arrays.
+ * It is an alternative to a list of {@link EntityMention} objects, which needs much less memory for large corpora.
+ * Entities are stored as ids of {@link EntityDictionary#getGlobal()}, the attributes (info map) as sparse columns, which only contain the rows where the attribute is set.
+ * The <code>referring</code> field of entity mentions is not stored.
+ *
+ * Use {@link #get(int)} or {@link #asList()} to get entity mentions for existing code.
+ * {@link tpt.dbweb.cat.io.StoredCorpus} keeps the mentions of its articles in tables.
+ *
+ * @author Thomas Rebele
+ */
+public class MentionTable {
+
+  public final String text;
+
+  private int size = 0;
+
+  private int[] starts, ends, minStarts, minEnds, entityIds;
+
+  private final Map<String, Column> attributes = new TreeMap<>();
+
+  /**
+   * Sparse column, rows are sorted
+   */
+  private static class Column {
+
+    int[] rows = new int[4];
+
+    String[] values = new String[4];
+
+    int size = 0;
+
+    int find(int row) {
+      return Arrays.binarySearch(rows, 0, size, row);
+    }
+
+    void set(int row, String value) {
+      int pos = find(row);
+      if (pos >= 0) {
+        values[pos] = value;
+        return;
+      }
+      pos = -pos - 1;
+      if (size == rows.length) {
+        rows = Arrays.copyOf(rows, 2 * size);
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      System.arraycopy(rows, pos, rows, pos + 1, size - pos);
+      System.arraycopy(values, pos, values, pos + 1, size - pos);
+      rows[pos] = row;
+      values[pos] = value;
+      size++;
+    }
+
+    String get(int row) {
+      int pos = find(row);
+      return pos >= 0 ? values[pos] : null;
+    }
+  }
+
+  public MentionTable(String text) {
+    this(text, 8);
+  }
+
+  public MentionTable(String text, int capacity) {
+    this.text = text;
+    capacity = Math.max(1, capacity);
+    starts = new int[capacity];
+    ends = new int[capacity];
+    minStarts = new int[capacity];
+    minEnds = new int[capacity];
+    entityIds = new int[capacity];
+  }
+
+  /**
+   * Convert entity mentions to a table. The min spans and info maps are copied, too.
+   * @param text
+   * @param mentions
+   * @return
+   */
+  public static MentionTable of(String text, List<EntityMention> mentions) {
+    MentionTable table = new MentionTable(text, mentions.size());
+    for (EntityMention em : mentions) {
+      int row = table.add(em.start, em.end, em.entity);
+      if (em.min != null) {
+        table.setMin(row, em.min.start, em.min.end);
+      }
+      if (em.info(false) != null) {
+        for (Map.Entry<String, String> e : em.info(false).entrySet()) {
+          table.setAttribute(row, e.getKey(), e.getValue());
+        }
+      }
+    }
+    return table;
+  }
+
+  public static MentionTable of(TaggedText tt) {
+    return of(tt.text, tt.mentions);
+  }
+
+  /**
+   * Append a mention
+   * @return row of the mention
+   */
+  public int add(int start, int end, String entity) {
+    if (size == starts.length) {
+      int capacity = 2 * size;
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      minStarts = Arrays.copyOf(minStarts, capacity);
+      minEnds = Arrays.copyOf(minEnds, capacity);
+      entityIds = Arrays.copyOf(entityIds, capacity);
+    }
+    starts[size] = start;
+    ends[size] = end;
+    minStarts[size] = -1;
+    minEnds[size] = -1;
+    entityIds[size] = EntityDictionary.getGlobal().getId(entity);
+    return size++;
+  }
+
+  public void setMin(int row, int start, int end) {
+    minStarts[row] = start;
+    minEnds[row] = end;
+  }
+
+  public void setAttribute(int row, String key, String value) {
+    attributes.computeIfAbsent(key, k -> new Column()).set(row, value);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int start(int row) {
+    return starts[row];
+  }
+
+  public int end(int row) {
+    return ends[row];
+  }
+
+  public boolean hasMin(int row) {
+    return minStarts[row] >= 0;
+  }
+
+  /**
+   * @return start of the min span, or -1
+   */
+  public int minStart(int row) {
+    return minStarts[row];
+  }
+
+  /**
+   * @return end of the min span, or -1
+   */
+  public int minEnd(int row) {
+    return minEnds[row];
+  }
+
+  /**
+   * @return start of the min span if available, otherwise start of the mention (like {@link EntityMention#getMinMention()})
+   */
+  public int minOrStart(int row) {
+    return minStarts[row] >= 0 ? minStarts[row] : starts[row];
+  }
+
+  /**
+   * @return end of the min span if available, otherwise end of the mention
+   */
+  public int minOrEnd(int row) {
+    return minStarts[row] >= 0 ? minEnds[row] : ends[row];
+  }
+
+  public int entityId(int row) {
+    return entityIds[row];
+  }
+
+  public String entity(int row) {
+    return EntityDictionary.getGlobal().getEntity(entityIds[row]);
+  }
+
+  /**
+   * @return value of an attribute, or null
+   */
+  public String attribute(int row, String key) {
+    Column c = attributes.get(key);
+    return c == null ? null : c.get(row);
+  }
+
+  /**
+   * Sort the rows like {@link TextSpan#compareTo(TextSpan)}, i.e. by start, longer mentions first. The sort is stable.
+   */
+  public void sort() {
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> {
+      int cmp = Integer.compare(starts[a], starts[b]);
+      return cmp != 0 ? cmp : -Integer.compare(ends[a], ends[b]);
+    });
+
+    int[] newRow = new int[size];
+    for (int i = 0; i < size; i++) {
+      newRow[order[i]] = i;
+    }
+    starts = permute(starts, order);
+    ends = permute(ends, order);
+    minStarts = permute(minStarts, order);
+    minEnds = permute(minEnds, order);
+    entityIds = permute(entityIds, order);
+    for (Map.Entry<String, Column> e : attributes.entrySet()) {
+      Column old = e.getValue(), c = new Column();
+      for (int i = 0; i < old.size; i++) {
+        c.set(newRow[old.rows[i]], old.values[i]);
+      }
+      e.setValue(c);
+    }
+  }
+
+  private int[] permute(int[] column, Integer[] order) {
+    int[] result = new int[column.length];
+    for (int i = 0; i < size; i++) {
+      result[i] = column[order[i]];
+    }
+    return result;
+  }
+
+  /**
+   * Create an entity mention object for a row. Changes of the object are not written back to the table.
+   * @param row
+   * @return
+   */
+  public EntityMention get(int row) {
+    return get(row, text);
+  }
+
+  /**
+   * Create an entity mention object for a row, which refers to another instance of the text (e.g. if the table was created without text).
+   * Changes of the object are not written back to the table.
+   * @param row
+   * @param text
+   * @return
+   */
+  public EntityMention get(int row, String text) {
+    EntityMention em = new EntityMention(text, starts[row], ends[row], entity(row));
+    em.internEntity();
+    if (hasMin(row)) {
+      em.min = new TextSpan(text, minStarts[row], minEnds[row]);
+    }
+    for (Map.Entry<String, Column> e : attributes.entrySet()) {
+      String value = e.getValue().get(row);
+      if (value != null) {
+        em.info().put(e.getKey(), value);
+      }
+    }
+    return em;
+  }
+
+  /**
+   * Read-only list view of the table, which creates the entity mention objects on access
+   * @return
+   */
+  public List<EntityMention> asList() {
+    return new EntityMentionList();
+  }
+
+  private class EntityMentionList extends AbstractList<EntityMention> implements RandomAccess {
+
+    @Override
+    public EntityMention get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+      }
+      return MentionTable.this.get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+}
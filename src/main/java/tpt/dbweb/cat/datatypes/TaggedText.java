@@ -46,6 +46,52 @@ public class TaggedText {
     return infoMap == null ? infoMap = (create ? new HashMap<>(1) : null) : infoMap;
   }
 
+  /**
+   * Let this tagged text and its mentions use the text of another tagged text, if both texts are equal.
+   * Afterwards the texts of both are the same instance, so comparing their text spans does not need to compare the characters.
+   * @param other
+   * @return true if the texts are equal
+   */
+  public boolean shareText(TaggedText other) {
+    String canonical = other.text;
+    if (text == canonical) {
+      return true;
+    }
+    if (text == null || !text.equals(canonical)) {
+      return false;
+    }
+    String old = text;
+    text = canonical;
+    if (mentions != null) {
+      for (EntityMention em : mentions) {
+        if (em.text == old) {
+          em.text = canonical;
+        }
+        if (em.min != null && em.min.text == old) {
+          em.min.text = canonical;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Let the documents of a corpus use the text instances of the documents with the same id in a reference corpus, see {@link #shareText(TaggedText)}.
+   * Call it right after reading, as it modifies the documents of the corpus.
+   * @param reference
+   * @param corpus
+   */
+  public static void shareTexts(List<TaggedText> reference, List<TaggedText> corpus) {
+    Map<String, TaggedText> idToReference = new HashMap<>();
+    reference.forEach(tt -> idToReference.putIfAbsent(tt.id, tt));
+    for (TaggedText tt : corpus) {
+      TaggedText ref = idToReference.get(tt.id);
+      if (ref != null) {
+        tt.shareText(ref);
+      }
+    }
+  }
+
   @Override
   public String toString() {
     return text + " {" + mentions + "}";
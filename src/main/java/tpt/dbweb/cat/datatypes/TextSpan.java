@@ -51,10 +51,9 @@ public class TextSpan implements Comparable<TextSpan>, Cloneable {
     if (this == other) return true;
     if (other == null || !(other instanceof TextSpan)) return false;
     TextSpan o = (TextSpan) other;
-    boolean textEq = text == null ? text == o.text : text.equals(o.text);
-    boolean startEq = start == o.start;
-    boolean endEq = end == o.end;
-    return textEq && startEq && endEq;
+    if (start != o.start || end != o.end) return false;
+    // texts are usually shared (see TaggedText#shareText), so compare the characters only if necessary
+    return text == o.text || (text != null && text.equals(o.text));
   }
 
   @Override
@@ -0,0 +1,258 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.datatypes.iterators;
+
+import java.util.Arrays;
+import java.util.List;
+
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.iterators.EntityMentionPosIterator.PosType;
+
+/**
+ * Sweep over the mention boundaries of several annotators of the same text.
+ * It visits the same slices as {@link CompareIterator}, but works on int arrays and does not allocate per step.
+ * The current slice is available through a {@link Cursor}, which is reused by every call to {@link #advance()}.
+ *
+ * The mentions of an annotator are identified by their row, i.e. their index in the list that was added.
+ * The rows need to be sorted by start, like {@link EntityMention#compareTo(tpt.dbweb.cat.datatypes.TextSpan)}.
+ *
+ * Usage:
+ * <pre>
+ * CompareSweep sweep = new CompareSweep(text.length());
+ * sweep.add(mentions0);
+ * sweep.add(mentions1);
+ * while (sweep.advance()) {
+ *   int row = sweep.cursor().principalRow(0);
+ *   ...
+ * }
+ * </pre>
+ *
+ * @author Thomas Rebele
+ */
+public class CompareSweep {
+
+  private final int textLength;
+
+  private int size = 0;
+
+  /** per annotator: start and end of every row, and the ends in ascending order */
+  private int[][] starts = new int[2][], ends = new int[2][], sortedEnds = new int[2][];
+
+  /** per annotator: next row to open, and next index of sortedEnds */
+  private int[] nextStart = new int[2], nextEnd = new int[2];
+
+  private final Cursor cursor = new Cursor();
+
+  private boolean started = false;
+
+  /**
+   * View of the current slice. It is only valid until the next call of {@link CompareSweep#advance()}.
+   */
+  public class Cursor {
+
+    /**
+     * Which part of the text is described by the slice
+     */
+    public int start = 0, end = 0;
+
+    /** per annotator: rows that are open at 'end', in row order */
+    int[][] open = new int[2][];
+
+    int[] openCount = new int[2];
+
+    /** per annotator: whether a mention starts or ends at 'start' and at 'end' */
+    boolean[] boundaryAtStart = new boolean[2], boundaryAtEnd = new boolean[2];
+
+    /**
+     * @return number of annotators
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @return number of mentions of the annotator that contain the position 'end' (including those that start or end there)
+     */
+    public int openCount(int annotator) {
+      return openCount[annotator];
+    }
+
+    /**
+     * @return j-th open row of the annotator; mentions starting earlier come first
+     */
+    public int openRow(int annotator, int j) {
+      return open[annotator][j];
+    }
+
+    /**
+     * Whether the slice starts at the beginning of the text or at a mention boundary of the annotator.
+     * A sweep over a subset of the annotators has a slice starting here if this holds for one of them.
+     */
+    public boolean startsAtBoundary(int annotator) {
+      return start == 0 || boundaryAtStart[annotator];
+    }
+
+    /**
+     * Top most / last encountered mention that covers the slice, like {@link ComparePair#getPrincipalMention(int)}
+     * @return row of the mention, or -1
+     */
+    public int principalRow(int annotator) {
+      int[] rows = open[annotator];
+      int[] s = starts[annotator];
+      for (int j = openCount[annotator] - 1; j >= 0; j--) {
+        if (s[rows[j]] < end) {
+          return rows[j];
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @return whether the j-th open row starts, ends or continues at position 'end'
+     */
+    public PosType posType(int annotator, int j) {
+      int row = open[annotator][j];
+      int s = starts[annotator][row], e = ends[annotator][row];
+      if (end == s) {
+        return PosType.START;
+      } else if (end == e) {
+        return PosType.END;
+      } else if (s < end && end < e) {
+        return PosType.INTERMEDIATE;
+      }
+      return PosType.INVALID;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("slice (" + start + "-" + end + ") open rows");
+      for (int i = 0; i < size; i++) {
+        sb.append(" ").append(Arrays.toString(Arrays.copyOf(open[i], openCount[i])));
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * @param textLength the sweep stops at this position; use Integer.MAX_VALUE if unknown
+   */
+  public CompareSweep(int textLength) {
+    this.textLength = textLength;
+  }
+
+  /**
+   * Add the mentions of an annotator. The list is sorted in place (like in {@link CompareIterator}), so that rows are list indices.
+   * @return index of the annotator
+   */
+  public int add(List<EntityMention> mentions) {
+    mentions.sort(null);
+    int[] s = new int[mentions.size()], e = new int[mentions.size()];
+    for (int row = 0; row < s.length; row++) {
+      EntityMention em = mentions.get(row);
+      s[row] = em.start;
+      e[row] = em.end;
+    }
+    return add(s, e);
+  }
+
+  /**
+   * Add the mentions of an annotator, given as boundary arrays. The arrays are not copied.
+   * @param s start of every row, ascending
+   * @param e end of every row
+   * @return index of the annotator
+   */
+  public int add(int[] s, int[] e) {
+    if (started) {
+      throw new IllegalStateException("cannot add annotators after the sweep started");
+    }
+    if (s.length != e.length) {
+      throw new IllegalArgumentException("got " + s.length + " starts, but " + e.length + " ends");
+    }
+    for (int row = 1; row < s.length; row++) {
+      if (s[row - 1] > s[row]) {
+        throw new IllegalArgumentException("rows are not sorted by start at row " + row);
+      }
+    }
+    if (size == starts.length) {
+      int capacity = 2 * size;
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      sortedEnds = Arrays.copyOf(sortedEnds, capacity);
+      nextStart = Arrays.copyOf(nextStart, capacity);
+      nextEnd = Arrays.copyOf(nextEnd, capacity);
+      cursor.open = Arrays.copyOf(cursor.open, capacity);
+      cursor.openCount = Arrays.copyOf(cursor.openCount, capacity);
+      cursor.boundaryAtStart = Arrays.copyOf(cursor.boundaryAtStart, capacity);
+      cursor.boundaryAtEnd = Arrays.copyOf(cursor.boundaryAtEnd, capacity);
+    }
+    starts[size] = s;
+    ends[size] = e;
+    sortedEnds[size] = e.clone();
+    Arrays.sort(sortedEnds[size]);
+    cursor.open[size] = new int[s.length];
+    return size++;
+  }
+
+  public Cursor cursor() {
+    return cursor;
+  }
+
+  /**
+   * Move the cursor to the next slice. The first slice starts at 0, every slice starts at the end of its predecessor,
+   * and the last one ends at the text length. A slice ends at the next mention boundary of any annotator.
+   * @return false if the end of the text was reached before
+   */
+  public boolean advance() {
+    if (started && cursor.end >= textLength) {
+      return false;
+    }
+
+    // close mentions that ended at the last position
+    if (started) {
+      for (int i = 0; i < size; i++) {
+        int[] rows = cursor.open[i], e = ends[i];
+        int count = 0;
+        for (int j = 0; j < cursor.openCount[i]; j++) {
+          if (e[rows[j]] > cursor.end) {
+            rows[count++] = rows[j];
+          }
+        }
+        cursor.openCount[i] = count;
+      }
+    }
+
+    // find the next boundary
+    int pos = textLength;
+    for (int i = 0; i < size; i++) {
+      if (nextStart[i] < starts[i].length) {
+        pos = Math.min(pos, starts[i][nextStart[i]]);
+      }
+      if (nextEnd[i] < sortedEnds[i].length) {
+        pos = Math.min(pos, sortedEnds[i][nextEnd[i]]);
+      }
+    }
+
+    // open mentions that start there
+    for (int i = 0; i < size; i++) {
+      int oldStart = nextStart[i], oldEnd = nextEnd[i];
+      int[] s = starts[i];
+      while (nextStart[i] < s.length && s[nextStart[i]] <= pos) {
+        cursor.open[i][cursor.openCount[i]++] = nextStart[i]++;
+      }
+      int[] e = sortedEnds[i];
+      while (nextEnd[i] < e.length && e[nextEnd[i]] <= pos) {
+        nextEnd[i]++;
+      }
+      cursor.boundaryAtStart[i] = cursor.boundaryAtEnd[i];
+      cursor.boundaryAtEnd[i] = oldStart != nextStart[i] || oldEnd != nextEnd[i];
+    }
+
+    cursor.start = started ? cursor.end : 0;
+    cursor.end = pos;
+    started = true;
+    return true;
+  }
+
+}
@@ -4,6 +4,7 @@
 
 package tpt.dbweb.cat.datatypes.iterators;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -13,14 +14,24 @@ import tpt.dbweb.cat.datatypes.EntityMention;
 /**
  * Iterates over positions (start, end) of an entity mention iterator.
  * The input iterator in the natural entity mention order give back an iterator which iterates over all positions sequentially.
+ * It is an adapter of {@link MentionBoundaries}, which creates an entity mention pos object for every position.
  * @author Thomas Rebele
  */
-public class EntityMentionPosIterator extends ReorderNestedIterator<EntityMention, EntityMentionPos> {
+public class EntityMentionPosIterator implements Iterator<EntityMentionPos> {
 
   public enum PosType {
     START, INTERMEDIATE, END, INVALID
   }
 
+  final List<EntityMention> mentions;
+
+  final MentionBoundaries boundaries;
+
+  /**
+   * returned by {@link #next()} after the last position
+   */
+  EntityMentionPos finalPos = null;
+
   /**
    * @see EntityMentionPosIterator
    * @param it ordered iterator
@@ -34,51 +45,29 @@ public class EntityMentionPosIterator extends ReorderNestedIterator<EntityMentio
    * @param it ordered iterator
    */
   public EntityMentionPosIterator(Iterator<EntityMention> it) {
-    super(it, em -> {
-      return new Iterator<EntityMentionPos>() {
-
-        EntityMention localEM = em;
-
-        PosType posType = PosType.START;
-
-        @Override
-        public boolean hasNext() {
-          return localEM != null;
-        }
-
-        @Override
-        public EntityMentionPos next() {
-          if (em == null) {
-            return null;
-          }
-          if (posType == PosType.START) {
-            posType = PosType.END;
-            EntityMentionPos emm = new EntityMentionPos();
-            emm.em = em;
-            emm.pos = em.start;
-            emm.posType = PosType.START;
-            return emm;
-          } else {
-
-            EntityMentionPos emm = new EntityMentionPos();
-            emm.em = em;
-            emm.pos = em.end;
-            emm.posType = PosType.END;
-            localEM = null;
-            return emm;
-          }
-        }
-      };
-    } , null);
+    this.mentions = new ArrayList<>();
+    it.forEachRemaining(mentions::add);
+    this.boundaries = new MentionBoundaries(mentions);
+  }
+
+  @Override
+  public boolean hasNext() {
+    return boundaries.hasNext();
   }
 
   @Override
   public EntityMentionPos next() {
-    if (hasNext()) {
-      return super.next();
-    } else {
-      return getFinalPos();
+    if (!boundaries.advance()) {
+      if (finalPos == null) {
+        finalPos = getFinalPos();
+      }
+      return finalPos;
     }
+    EntityMentionPos emp = new EntityMentionPos();
+    emp.em = mentions.get(boundaries.row());
+    emp.pos = boundaries.pos();
+    emp.posType = boundaries.posType();
+    return emp;
   }
 
   public static EntityMentionPos getFinalPos() {
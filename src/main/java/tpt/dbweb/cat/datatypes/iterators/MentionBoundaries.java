@@ -0,0 +1,177 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.datatypes.iterators;
+
+import java.util.Arrays;
+import java.util.List;
+
+import tpt.dbweb.cat.datatypes.TextSpan;
+import tpt.dbweb.cat.datatypes.iterators.EntityMentionPosIterator.PosType;
+
+/**
+ * Generates the start and end positions of mentions in the order of {@link EntityMentionPos#compareTo(EntityMentionPos)},
+ * i.e. by position, and at the same position in mention order (start ascending, end descending).
+ * Mentions with the same span keep their list order, and the start of a mention comes before its end.
+ *
+ * It merges the rows sorted by start with the rows sorted by end, and does not allocate per position.
+ * The mentions are identified by their row, i.e. their index in the list that was passed to the constructor.
+ *
+ * Usage:
+ * <pre>
+ * MentionBoundaries b = new MentionBoundaries(mentions);
+ * while (b.advance()) {
+ *   EntityMention em = mentions.get(b.row());
+ *   ...
+ * }
+ * </pre>
+ *
+ * @author Thomas Rebele
+ */
+public class MentionBoundaries {
+
+  private final int[] starts, ends;
+
+  /** rows in mention order, and the indices of byStart ordered by end */
+  private final int[] byStart, byEnd;
+
+  private int nextStart = 0, nextEnd = 0;
+
+  private int pos = -1, row = -1;
+
+  private PosType posType = PosType.INVALID;
+
+  public MentionBoundaries(List<? extends TextSpan> mentions) {
+    this(startsOf(mentions), endsOf(mentions));
+  }
+
+  /**
+   * @param starts start of every row
+   * @param ends end of every row
+   */
+  public MentionBoundaries(int[] starts, int[] ends) {
+    if (starts.length != ends.length) {
+      throw new IllegalArgumentException("got " + starts.length + " starts, but " + ends.length + " ends");
+    }
+    this.starts = starts;
+    this.ends = ends;
+    int n = starts.length;
+
+    // rows in mention order; usually the mentions are already sorted
+    byStart = new int[n];
+    boolean sorted = true;
+    for (int i = 0; i < n; i++) {
+      byStart[i] = i;
+      sorted &= i == 0 || compareSpans(i - 1, i) <= 0;
+    }
+    if (!sorted) {
+      Integer[] order = new Integer[n];
+      for (int i = 0; i < n; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, this::compareSpans);
+      for (int i = 0; i < n; i++) {
+        byStart[i] = order[i];
+      }
+    }
+
+    // stable sort of byStart by end, so mentions ending at the same position stay in mention order
+    long[] keys = new long[n];
+    for (int i = 0; i < n; i++) {
+      keys[i] = ((long) ends[byStart[i]] << 32) | i;
+    }
+    Arrays.sort(keys);
+    byEnd = new int[n];
+    for (int i = 0; i < n; i++) {
+      byEnd[i] = (int) keys[i];
+    }
+  }
+
+  private static int[] startsOf(List<? extends TextSpan> mentions) {
+    int[] result = new int[mentions.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = mentions.get(i).start;
+    }
+    return result;
+  }
+
+  private static int[] endsOf(List<? extends TextSpan> mentions) {
+    int[] result = new int[mentions.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = mentions.get(i).end;
+    }
+    return result;
+  }
+
+  /**
+   * Compare two rows like {@link TextSpan#compareTo(TextSpan)}
+   */
+  private int compareSpans(int row0, int row1) {
+    int cmp = Integer.compare(starts[row0], starts[row1]);
+    return cmp != 0 ? cmp : -Integer.compare(ends[row0], ends[row1]);
+  }
+
+  public boolean hasNext() {
+    return nextEnd < byEnd.length;
+  }
+
+  /**
+   * Move to the next start or end position
+   * @return false if there are no more positions
+   */
+  public boolean advance() {
+    if (!hasNext()) {
+      pos = Integer.MAX_VALUE;
+      row = -1;
+      posType = PosType.INVALID;
+      return false;
+    }
+
+    boolean start = nextStart < byStart.length;
+    if (start) {
+      // compare (position, mention order, list order, start before end) of the next start and the next end
+      int s = byStart[nextStart], endIdx = byEnd[nextEnd], e = byStart[endIdx];
+      int cmp = Integer.compare(starts[s], ends[e]);
+      if (cmp == 0) {
+        cmp = compareSpans(s, e);
+      }
+      if (cmp == 0) {
+        cmp = Integer.compare(nextStart, endIdx);
+      }
+      start = cmp <= 0;
+    }
+
+    if (start) {
+      row = byStart[nextStart++];
+      pos = starts[row];
+      posType = PosType.START;
+    } else {
+      row = byStart[byEnd[nextEnd++]];
+      pos = ends[row];
+      posType = PosType.END;
+    }
+    return true;
+  }
+
+  /**
+   * @return current position; Integer.MAX_VALUE after the last one
+   */
+  public int pos() {
+    return pos;
+  }
+
+  /**
+   * @return row of the mention at the current position, or -1 after the last one
+   */
+  public int row() {
+    return row;
+  }
+
+  /**
+   * @return START or END; INVALID after the last position
+   */
+  public PosType posType() {
+    return posType;
+  }
+}
@@ -0,0 +1,301 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.evaluation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.Fraction;
+import tpt.dbweb.cat.datatypes.TaggedText;
+import tpt.dbweb.cat.tools.KuhnMunkres;
+
+/**
+ * Calculates the metrics of lib/reference-coreference-scorers (MUC, B³, CEAF-m, CEAF-e, BLANC and LEA) in-process, without calling scorer.pl.
+ * The results use the metric names of scorer.pl, so they can be used in place of the output of {@link ReferenceEvaluator#parseScorerOutput(String)}.
+ *
+ * Mentions are identified by their start and end position, chains by the entity of their mentions.
+ * Documents of goldstandard and compare are matched by their id, like scorer.pl does.
+ *
+ * @author Thomas Rebele
+ */
+public class CoreferenceScorer {
+
+  private final static Logger log = LoggerFactory.getLogger(CoreferenceScorer.class);
+
+  public static final List<String> METRICS = Arrays.asList("muc", "bcub", "ceafm", "ceafe", "blanc", "lea");
+
+  /**
+   * Partition of the mentions of a document into chains.
+   */
+  static class Partition {
+
+    /** mention (start &lt;&lt; 32 | end) to chain index */
+    Map<Long, Integer> mentionToChain = new HashMap<>();
+
+    /** size of each chain */
+    int[] chainSize;
+
+    int mentionCount() {
+      return mentionToChain.size();
+    }
+
+    Partition(TaggedText tt) {
+      Map<Integer, Integer> entityToChain = new HashMap<>();
+      List<Integer> sizes = new ArrayList<>();
+      if (tt != null && tt.mentions != null) {
+        for (EntityMention em : tt.mentions) {
+          if (em.entity == null) {
+            continue;
+          }
+          long key = mentionKey(em);
+          if (mentionToChain.containsKey(key)) {
+            log.warn("ignoring repeated mention {} in document {}", em, tt.id);
+            continue;
+          }
+          int chain = entityToChain.computeIfAbsent(em.getEntityId(), k -> {
+            sizes.add(0);
+            return sizes.size() - 1;
+          });
+          sizes.set(chain, sizes.get(chain) + 1);
+          mentionToChain.put(key, chain);
+        }
+      }
+      chainSize = sizes.stream().mapToInt(i -> i).toArray();
+    }
+  }
+
+  /**
+   * Sparse matrix of the number of mentions that a key chain and a response chain have in common.
+   */
+  static class Overlap {
+
+    int[] keyChain, responseChain, count;
+
+    int size = 0;
+
+    /** number of mentions of each key chain, that are also in the response */
+    int[] keyCommon;
+
+    /** number of mentions of each response chain, that are also in the key */
+    int[] responseCommon;
+
+    Overlap(Partition key, Partition response) {
+      Map<Long, Integer> cellToIdx = new HashMap<>();
+      int n = Math.max(1, Math.min(key.mentionCount(), response.mentionCount()));
+      keyChain = new int[n];
+      responseChain = new int[n];
+      count = new int[n];
+      keyCommon = new int[key.chainSize.length];
+      responseCommon = new int[response.chainSize.length];
+      for (Map.Entry<Long, Integer> e : key.mentionToChain.entrySet()) {
+        Integer r = response.mentionToChain.get(e.getKey());
+        if (r == null) {
+          continue;
+        }
+        int k = e.getValue();
+        keyCommon[k]++;
+        responseCommon[r]++;
+        long cell = ((long) k << 32) | r;
+        Integer idx = cellToIdx.get(cell);
+        if (idx == null) {
+          idx = size++;
+          cellToIdx.put(cell, idx);
+          keyChain[idx] = k;
+          responseChain[idx] = r;
+        }
+        count[idx]++;
+      }
+    }
+  }
+
+  static long mentionKey(EntityMention em) {
+    return ((long) em.start << 32) | (em.end & 0xffffffffL);
+  }
+
+  /**
+   * Evaluates all metrics for two lists of tagged texts. Only one document pair is used at a time, so the lists may create the documents on access.
+   * @param goldstandard
+   * @param compare
+   * @return
+   */
+  public ComparisonResult compare(List<TaggedText> goldstandard, List<TaggedText> compare) {
+    Map<String, Integer> idToCompare = new HashMap<>();
+    for (int i = 0; i < compare.size(); i++) {
+      idToCompare.put(compare.get(i).id, i);
+    }
+    ComparisonResult result = new ComparisonResult();
+    for (TaggedText gold : goldstandard) {
+      Integer cmpIdx = idToCompare.get(gold.id);
+      TaggedText cmp = cmpIdx == null ? null : compare.get(cmpIdx);
+      if (cmp == null) {
+        log.warn("document {} not found in response", gold.id);
+      }
+      result.docidToMetricToResult.put(gold.id, score(gold, cmp));
+    }
+    return result;
+  }
+
+  /**
+   * Evaluates all metrics for one document
+   * @param key goldstandard
+   * @param response compare, might be null
+   * @return map from metric name to result
+   */
+  public Map<String, EvaluationStatistics> score(TaggedText key, TaggedText response) {
+    Partition k = new Partition(key), r = new Partition(response);
+    Overlap o = new Overlap(k, r);
+    Map<String, EvaluationStatistics> result = new TreeMap<>();
+    result.put("muc", muc(k, r, o));
+    result.put("bcub", bcub(k, r, o));
+    result.put("ceafm", ceaf(k, r, o, false));
+    result.put("ceafe", ceaf(k, r, o, true));
+    result.put("blanc", blanc(k, r, o));
+    result.put("lea", lea(k, r, o));
+    return result;
+  }
+
+  private static double links(int n) {
+    return n * (n - 1) / 2.0;
+  }
+
+  ValueEvaluationStatistics muc(Partition key, Partition response, Overlap o) {
+    // number of partitions of a chain relative to the other partitioning; mentions not in the other partitioning are singletons
+    int[] keyParts = new int[key.chainSize.length], responseParts = new int[response.chainSize.length];
+    for (int i = 0; i < o.size; i++) {
+      keyParts[o.keyChain[i]]++;
+      responseParts[o.responseChain[i]]++;
+    }
+    double recallNom = 0, recallDenom = 0, precisionNom = 0, precisionDenom = 0;
+    for (int i = 0; i < key.chainSize.length; i++) {
+      int parts = keyParts[i] + key.chainSize[i] - o.keyCommon[i];
+      recallNom += key.chainSize[i] - parts;
+      recallDenom += key.chainSize[i] - 1;
+    }
+    for (int i = 0; i < response.chainSize.length; i++) {
+      int parts = responseParts[i] + response.chainSize[i] - o.responseCommon[i];
+      precisionNom += response.chainSize[i] - parts;
+      precisionDenom += response.chainSize[i] - 1;
+    }
+    return new ValueEvaluationStatistics(new Fraction(recallNom, recallDenom), new Fraction(precisionNom, precisionDenom));
+  }
+
+  ValueEvaluationStatistics bcub(Partition key, Partition response, Overlap o) {
+    double recallNom = 0, precisionNom = 0;
+    for (int i = 0; i < o.size; i++) {
+      double sq = (double) o.count[i] * o.count[i];
+      recallNom += sq / key.chainSize[o.keyChain[i]];
+      precisionNom += sq / response.chainSize[o.responseChain[i]];
+    }
+    return new ValueEvaluationStatistics(new Fraction(recallNom, key.mentionCount()), new Fraction(precisionNom, response.mentionCount()));
+  }
+
+  /**
+   * CEAF with mention based (phi3) or entity based (phi4) similarity
+   */
+  ValueEvaluationStatistics ceaf(Partition key, Partition response, Overlap o, boolean entityBased) {
+    double[] weight = new double[o.size];
+    for (int i = 0; i < o.size; i++) {
+      weight[i] = entityBased ? 2.0 * o.count[i] / (key.chainSize[o.keyChain[i]] + response.chainSize[o.responseChain[i]]) : o.count[i];
+    }
+    int[] assignment = KuhnMunkres.solveSparse(key.chainSize.length, response.chainSize.length, o.keyChain, o.responseChain, weight, o.size);
+    double similarity = 0;
+    for (int i = 0; i < o.size; i++) {
+      if (assignment[o.keyChain[i]] == o.responseChain[i]) {
+        similarity += weight[i];
+      }
+    }
+    double recallDenom = entityBased ? key.chainSize.length : key.mentionCount();
+    double precisionDenom = entityBased ? response.chainSize.length : response.mentionCount();
+    return new ValueEvaluationStatistics(new Fraction(similarity, recallDenom), new Fraction(similarity, precisionDenom));
+  }
+
+  /**
+   * BLANC for predicted mentions (Luo et al. 2014). Recall and precision are the averages of the coreference and non-coreference links.
+   */
+  ValueEvaluationStatistics blanc(Partition key, Partition response, Overlap o) {
+    double keyCoref = 0, responseCoref = 0, commonCoref = 0;
+    for (int size : key.chainSize) {
+      keyCoref += links(size);
+    }
+    for (int size : response.chainSize) {
+      responseCoref += links(size);
+    }
+    for (int i = 0; i < o.size; i++) {
+      commonCoref += links(o.count[i]);
+    }
+    double keyNonCoref = links(key.mentionCount()) - keyCoref;
+    double responseNonCoref = links(response.mentionCount()) - responseCoref;
+
+    // non-coreference links between common mentions, which are in different chains of key and response
+    int common = 0;
+    double sameKey = 0, sameResponse = 0;
+    for (int c : o.keyCommon) {
+      common += c;
+      sameKey += links(c);
+    }
+    for (int c : o.responseCommon) {
+      sameResponse += links(c);
+    }
+    double commonNonCoref = links(common) - sameKey - sameResponse + commonCoref;
+
+    Fraction recallC = new Fraction(commonCoref, keyCoref), precisionC = new Fraction(commonCoref, responseCoref);
+    Fraction recallN = new Fraction(commonNonCoref, keyNonCoref), precisionN = new Fraction(commonNonCoref, responseNonCoref);
+
+    Fraction recall, precision;
+    if (keyCoref == 0 && responseCoref == 0) {
+      // only singletons
+      recall = recallN;
+      precision = precisionN;
+    } else if (keyNonCoref == 0 && responseNonCoref == 0) {
+      // only one chain
+      recall = recallC;
+      precision = precisionC;
+    } else {
+      recall = new Fraction(recallC.value(0) + recallN.value(0), 2);
+      precision = new Fraction(precisionC.value(0) + precisionN.value(0), 2);
+    }
+    return new ValueEvaluationStatistics(recall, precision);
+  }
+
+  /**
+   * Link-based entity aware metric (Moosavi and Strube 2016)
+   */
+  ValueEvaluationStatistics lea(Partition key, Partition response, Overlap o) {
+    double[] keyResolved = new double[key.chainSize.length], responseResolved = new double[response.chainSize.length];
+    for (int i = 0; i < o.size; i++) {
+      int k = o.keyChain[i], r = o.responseChain[i];
+      // singletons are resolved, if the other side has the same singleton
+      if (key.chainSize[k] == 1) {
+        keyResolved[k] += response.chainSize[r] == 1 ? 1 : 0;
+      } else {
+        keyResolved[k] += links(o.count[i]);
+      }
+      if (response.chainSize[r] == 1) {
+        responseResolved[r] += key.chainSize[k] == 1 ? 1 : 0;
+      } else {
+        responseResolved[r] += links(o.count[i]);
+      }
+    }
+    double recallNom = 0, precisionNom = 0;
+    for (int i = 0; i < key.chainSize.length; i++) {
+      int size = key.chainSize[i];
+      recallNom += size * keyResolved[i] / (size == 1 ? 1 : links(size));
+    }
+    for (int i = 0; i < response.chainSize.length; i++) {
+      int size = response.chainSize[i];
+      precisionNom += size * responseResolved[i] / (size == 1 ? 1 : links(size));
+    }
+    return new ValueEvaluationStatistics(new Fraction(recallNom, key.mentionCount()), new Fraction(precisionNom, response.mentionCount()));
+  }
+
+}
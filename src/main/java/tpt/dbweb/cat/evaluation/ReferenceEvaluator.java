@@ -4,35 +4,43 @@
 
 package tpt.dbweb.cat.evaluation;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringWriter;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.beust.jcommander.Parameter;
 
-import tpt.dbweb.cat.datatypes.Fraction;
 import tpt.dbweb.cat.datatypes.TaggedText;
 import tpt.dbweb.cat.io.ConllWriter;
 import tpt.dbweb.cat.io.TaggedTextXMLReader;
+import tpt.dbweb.cat.tools.ProcessRunner;
 
 /**
  * Calls lib/reference-coreference-scorers and parses the output.
+ * With the option --scorer NATIVE the metrics are calculated by {@link CoreferenceScorer} instead.
  * @author Thomas Rebele
  *
  */
@@ -40,34 +48,82 @@ public class ReferenceEvaluator {
 
   private static Logger log = LoggerFactory.getLogger(ReferenceEvaluator.class);
 
+  public enum Scorer {
+    /** lib/reference-coreference-scorers/scorer.pl */
+    PERL,
+    /** {@link CoreferenceScorer} */
+    NATIVE
+  };
+
   public static class Options {
 
-    @Parameter(names = "--single-file", description = "put all articles in one file for reference-coreference-scorers")
+    @Parameter(names = "--scorer", description = "implementation of the coreference metrics")
+    public Scorer scorer = Scorer.NATIVE;
+
+    @Parameter(names = "--single-file", description = "put all articles in one file for reference-coreference-scorers, otherwise split them into shards scored in parallel")
     public boolean singleFile = true;
 
     @Parameter(names = "--remove-tmp-files", description = "temporarily generated files will get removed after execution")
     public boolean removeTmpFiles = true;
 
+    @Parameter(names = "--scorer-shards", description = "number of scorer.pl runs when using the split file option (0 for automatic)")
+    public int shards = 0;
+
+    @Parameter(names = "--scorer-processes", description = "maximum number of scorer.pl processes running at the same time")
+    public int maxProcesses = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "--scorer-timeout", description = "kill a scorer.pl process after this number of seconds (0 for no timeout)")
+    public long timeout = 0;
+
+    @Parameter(names = "--score-cache", description = "directory for caching the metrics of single documents, so that unchanged documents are not scored again")
+    public String scoreCache = null;
+
+    @Parameter(names = "--score-cache-size", description = "maximal size of the score cache in megabytes")
+    public long scoreCacheSize = 1024;
+
   }
 
+  /** directory of scorer.pl and its modules */
+  private static final Path SCORER_DIRECTORY = Paths.get("lib/reference-coreference-scorers");
+
+  /** metrics calculated by scorer.pl */
+  private static final String SCORER_METRIC = "all";
+
+  /** minimal text length of a shard when the number of shards is derived automatically */
+  private static final long MIN_SHARD_LENGTH = 50000;
+
   private Options options = new Options();
 
-  // create a regex to parse
-  private Pattern resultPattern = null;
+  private final ProcessRunner processRunner;
+
+  private final ScoreCache scoreCache;
+
+  /** name, version and options of the scorer, see {@link #getScorerKey()} */
+  private String scorerKey = null;
 
   public ReferenceEvaluator() {
-    String floatingPointRegex = "\\d*\\.?\\d+";
-    String nomRegex = "\\((?<RecallNom>" + floatingPointRegex + ")\\s*";
-    String denomRegex = "\\s*(?<RecallDenom>" + floatingPointRegex + ")\\)";
-    String percentRegex = "\\s*(?<RecallPct>" + floatingPointRegex + ")\\%\\s*";
-    String recallPattern = "Recall:\\s*(?:" + nomRegex + "/" + denomRegex + ")?" + percentRegex;
-    String precisionPattern = recallPattern.replaceAll("Recall", "Precision");
-    String f1Pattern = recallPattern.replaceAll("Recall", "F1");
-    resultPattern = Pattern.compile(recallPattern + precisionPattern + f1Pattern + ".*");
+    this(new Options());
   }
 
   public ReferenceEvaluator(Options refEvalOptions) {
+    this(refEvalOptions, createProcessRunner(refEvalOptions));
+  }
+
+  /**
+   * @param refEvalOptions
+   * @param processRunner runs scorer.pl; evaluators that share it do not exceed its process limit together
+   */
+  public ReferenceEvaluator(Options refEvalOptions, ProcessRunner processRunner) {
     this.options = refEvalOptions;
+    this.processRunner = processRunner;
+    this.scoreCache = options.scoreCache == null ? null : new ScoreCache(Paths.get(options.scoreCache), options.scoreCacheSize << 20);
+  }
+
+  /**
+   * @return runner for scorer.pl with the process limit and the timeout of the options
+   */
+  public static ProcessRunner createProcessRunner(Options options) {
+    return new ProcessRunner(options.maxProcesses, TimeUnit.SECONDS.toMillis(options.timeout));
   }
 
   private void silentDelete(Path path) {
@@ -86,9 +142,23 @@ public class ReferenceEvaluator {
    * @throws IOException
    */
   public ComparisonResult compareXMLFiles(Path goldstandard, Path compare, Path tmpDirectory) throws IOException {
-    TaggedTextXMLReader.Options options = new TaggedTextXMLReader.Options();
-    TaggedTextXMLReader reader = new TaggedTextXMLReader(options);
+    return compareXMLFiles(goldstandard, compare, tmpDirectory, new TaggedTextXMLReader.Options());
+  }
+
+  /**
+   * EValuates metrics for two tagged text XML files.
+   * @param goldstandard path to tagged text XML
+   * @param compare path to tagged text XML
+   * @param tmpDirectory where to store generated files
+   * @param readerOptions options for reading the XML files
+   * @return
+   * @throws IOException
+   */
+  public ComparisonResult compareXMLFiles(Path goldstandard, Path compare, Path tmpDirectory, TaggedTextXMLReader.Options readerOptions)
+      throws IOException {
+    TaggedTextXMLReader reader = new TaggedTextXMLReader(readerOptions);
     List<TaggedText> goldstd = reader.getTaggedText(goldstandard), cmp = reader.getTaggedText(compare);
+    TaggedText.shareTexts(goldstd, cmp);
     return compare(goldstd, goldstandard.getFileName().toString(), cmp, compare.getFileName().toString(), tmpDirectory);
   }
 
@@ -97,7 +167,8 @@ public class ReferenceEvaluator {
   }
 
   /**
-   * Evaluates metrics for list of tagged texts.
+   * Evaluates metrics for list of tagged texts. The tagged texts are not modified, so they can be shared with other stages.
+   * The documents are accessed by index and not kept, so the lists may create them on access, like {@link tpt.dbweb.cat.io.StoredCorpus#asList()}.
    * @param goldstandard list of tagged texts
    * @param goldstandardFilename temporary filename for goldstandard .conll file
    * @param compare list of tagged texts
@@ -108,9 +179,106 @@ public class ReferenceEvaluator {
    */
   public ComparisonResult compare(List<TaggedText> goldstandard, String goldstandardFilename, List<TaggedText> compare, String compareFilename,
       Path tmpDirectory) throws IOException {
+    if (scoreCache == null) {
+      return compareUncached(goldstandard, goldstandardFilename, compare, compareFilename, tmpDirectory);
+    }
+
+    // look up the document pairs in the cache
+    Map<String, Integer> idToCompare = new HashMap<>();
+    for (int i = 0; i < compare.size(); i++) {
+      idToCompare.put(compare.get(i).id, i);
+    }
+    List<String> goldstandardIds = new ArrayList<>(goldstandard.size());
+    goldstandard.forEach(tt -> goldstandardIds.add(tt.id));
+    if (!idToCompare.keySet().containsAll(goldstandardIds)) {
+      log.debug("not using the score cache, as some documents of {} are missing in {}", goldstandardFilename, compareFilename);
+      return compareUncached(goldstandard, goldstandardFilename, compare, compareFilename, tmpDirectory);
+    }
+    String scorer = getScorerKey();
+    ComparisonResult result = new ComparisonResult();
+    List<Integer> goldstandardMisses = new ArrayList<>(), compareMisses = new ArrayList<>();
+    List<String> missKeys = new ArrayList<>();
+    for (int i = 0; i < goldstandard.size(); i++) {
+      int cmpIdx = idToCompare.get(goldstandardIds.get(i));
+      String key = ScoreCache.key(scorer, goldstandard.get(i), compare.get(cmpIdx));
+      Map<String, EvaluationStatistics> metricToResult = scoreCache.get(key);
+      if (metricToResult != null) {
+        result.docidToMetricToResult.put(goldstandardIds.get(i), metricToResult);
+      } else {
+        goldstandardMisses.add(i);
+        compareMisses.add(cmpIdx);
+        missKeys.add(key);
+      }
+    }
+    log.debug("score cache: {} hits, {} misses", goldstandard.size() - missKeys.size(), missKeys.size());
+
+    // score the others
+    if (missKeys.size() > 0) {
+      ComparisonResult missResult = compareUncached(select(goldstandard, goldstandardMisses), goldstandardFilename, select(compare, compareMisses),
+          compareFilename, tmpDirectory);
+      for (int i = 0; i < missKeys.size(); i++) {
+        Map<String, EvaluationStatistics> metricToResult = missResult.docidToMetricToResult.get(goldstandardIds.get(goldstandardMisses.get(i)));
+        if (metricToResult != null) {
+          scoreCache.put(missKeys.get(i), metricToResult);
+        }
+      }
+      result.merge(missResult);
+      scoreCache.evict();
+    }
+    return result;
+  }
+
+  /**
+   * @return view of the elements of a list at the given indices
+   */
+  private static <T> List<T> select(List<T> list, List<Integer> indices) {
+    return new AbstractList<T>() {
+
+      @Override
+      public T get(int index) {
+        return list.get(indices.get(index));
+      }
+
+      @Override
+      public int size() {
+        return indices.size();
+      }
+    };
+  }
+
+  /**
+   * Describes the scorer for the keys of the score cache, so that a change of the scorer invalidates the entries.
+   * The version of {@link CoreferenceScorer} is covered by {@link ScoreCache#VERSION}. scorer.pl does not report its version,
+   * so for it the key contains a hash of the script and its modules.
+   * @return
+   * @throws IOException if the files of scorer.pl cannot be read
+   */
+  private synchronized String getScorerKey() throws IOException {
+    if (scorerKey == null) {
+      if (options.scorer == Scorer.PERL) {
+        List<Path> files = new ArrayList<>();
+        files.add(SCORER_DIRECTORY.resolve("scorer.pl"));
+        Path modules = SCORER_DIRECTORY.resolve("lib");
+        if (Files.isDirectory(modules)) {
+          try (Stream<Path> stream = Files.walk(modules)) {
+            stream.filter(p -> p.toString().endsWith(".pm")).sorted().forEach(files::add);
+          }
+        }
+        scorerKey = options.scorer.name() + " " + SCORER_METRIC + " " + ScoreCache.hash(files);
+      } else {
+        scorerKey = options.scorer.name();
+      }
+    }
+    return scorerKey;
+  }
+
+  private ComparisonResult compareUncached(List<TaggedText> goldstandard, String goldstandardFilename, List<TaggedText> compare,
+      String compareFilename, Path tmpDirectory) throws IOException {
+    if (this.options.scorer == Scorer.NATIVE) {
+      return new CoreferenceScorer().compare(goldstandard, compare);
+    }
     String scorerOutput = goldstandardFilename + "-" + compareFilename + "-scorer-output";
     ConllWriter conll = new ConllWriter();
-    ReferenceEvaluator evaluator = new ReferenceEvaluator();
     if (this.options.singleFile) {
       log.info("using only one thread, try to use the split file option to speed things up");
       Path goldstdConllFile = tmpDirectory.resolve(goldstandardFilename + ".conll");
@@ -120,7 +288,7 @@ public class ReferenceEvaluator {
       conll.writeTTList(compare, compareConllFile);
 
       Path scorerOutputFile = tmpDirectory.resolve(scorerOutput + ".txt");
-      ComparisonResult result = evaluator.compareConllFiles(goldstdConllFile, compareConllFile, scorerOutputFile);
+      ComparisonResult result = compareConllFiles(goldstdConllFile, compareConllFile, scorerOutputFile);
       if (this.options.removeTmpFiles) {
         silentDelete(goldstdConllFile);
         silentDelete(compareConllFile);
@@ -130,28 +298,37 @@ public class ReferenceEvaluator {
 
     } else {
       int cnt = Math.min(goldstandard.size(), compare.size());
-      List<ComparisonResult> lst = IntStream.range(0, cnt).parallel().mapToObj((i) -> {
-        String id = goldstandard.get(i).id;
-        Path goldstdConllFile = tmpDirectory.resolve(goldstandardFilename + "-" + id);
-        conll.writeTT(goldstandard.get(i), goldstdConllFile);
+      List<List<Integer>> shards = getShards(goldstandard.subList(0, cnt), options.shards);
+      log.debug("scoring {} documents in {} shards", cnt, shards.size());
+      // a failing shard fails the whole comparison, instead of silently dropping its documents
+      List<ComparisonResult> lst;
+      try {
+        lst = IntStream.range(0, shards.size()).parallel().mapToObj((i) -> {
+          List<TaggedText> goldstandardShard = select(goldstandard, shards.get(i));
+          List<TaggedText> compareShard = select(compare, shards.get(i));
 
-        Path compareConllFile = tmpDirectory.resolve(compareFilename + "-" + id);
-        conll.writeTT(compare.get(i), compareConllFile);
+          Path goldstdConllFile = tmpDirectory.resolve(goldstandardFilename + "-shard" + i + ".conll");
+          conll.writeTTList(goldstandardShard, goldstdConllFile);
 
-        Path scorerOutputFile = tmpDirectory.resolve(scorerOutput + Thread.currentThread().getName() + ".txt");
-        ComparisonResult singleResult = evaluator.compareConllFiles(goldstdConllFile, compareConllFile, scorerOutputFile);
-        if (this.options.removeTmpFiles) {
+          Path compareConllFile = tmpDirectory.resolve(compareFilename + "-shard" + i + ".conll");
+          conll.writeTTList(compareShard, compareConllFile);
+
+          Path scorerOutputFile = tmpDirectory.resolve(scorerOutput + "-shard" + i + ".txt");
           try {
-            silentDelete(goldstdConllFile);
-            silentDelete(compareConllFile);
-            silentDelete(scorerOutputFile);
-          } catch (Exception e) {
-            e.printStackTrace();
+            return compareConllFiles(goldstdConllFile, compareConllFile, scorerOutputFile);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          } finally {
+            if (this.options.removeTmpFiles) {
+              silentDelete(goldstdConllFile);
+              silentDelete(compareConllFile);
+              silentDelete(scorerOutputFile);
+            }
           }
-        }
-
-        return singleResult;
-      }).collect(Collectors.toList());
+        }).collect(Collectors.toList());
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
 
       ComparisonResult result = new ComparisonResult();
       lst.forEach(cr -> result.merge(cr));
@@ -159,30 +336,93 @@ public class ReferenceEvaluator {
     }
   }
 
+  /**
+   * Distribute documents to shards, such that the shards have a similar text length.
+   * Every shard is scored by one scorer process, so the number of shards is limited by the number of processes, and shards are not too small.
+   * @param docs
+   * @param shardCount number of shards, 0 to derive it from the number of processes and the text length
+   * @return list of shards; a shard is a list of document indices in ascending order
+   */
+  List<List<Integer>> getShards(List<TaggedText> docs, int shardCount) {
+    int[] lengths = new int[docs.size()];
+    long totalLength = 0;
+    for (int i = 0; i < lengths.length; i++) {
+      String text = docs.get(i).text;
+      lengths[i] = text == null ? 0 : text.length();
+      totalLength += lengths[i];
+    }
+    if (shardCount <= 0) {
+      long bySize = (totalLength + MIN_SHARD_LENGTH - 1) / MIN_SHARD_LENGTH;
+      shardCount = (int) Math.min(options.maxProcesses, bySize);
+    }
+    shardCount = Math.max(1, Math.min(shardCount, docs.size()));
+
+    // longest document first into the shard with the smallest text length
+    List<Integer> bySizeDesc = IntStream.range(0, docs.size()).boxed()
+        .sorted(Comparator.comparingInt((Integer i) -> lengths[i]).reversed())
+        .collect(Collectors.toList());
+    PriorityQueue<long[]> queue = new PriorityQueue<>(Comparator.comparingLong((long[] shard) -> shard[0]).thenComparingLong(shard -> shard[1]));
+    List<List<Integer>> result = new ArrayList<>();
+    for (int i = 0; i < shardCount; i++) {
+      result.add(new ArrayList<>());
+      queue.add(new long[] { 0, i });
+    }
+    for (int doc : bySizeDesc) {
+      long[] shard = queue.poll();
+      result.get((int) shard[1]).add(doc);
+      shard[0] += lengths[doc];
+      queue.add(shard);
+    }
+    result.forEach(shard -> shard.sort(null));
+    return result;
+  }
+
   /**
    * Compare two files in Conll format (!)
    * @param goldstandard
    * @param compare
    * @param scorerOutput save output of scorer to this file if set
    * @return
+   * @throws IOException if the scorer could not be run or timed out, as the result would miss documents
    */
-  public ComparisonResult compareConllFiles(Path goldstandard, Path compare, Path scorerOutput) {
+  public ComparisonResult compareConllFiles(Path goldstandard, Path compare, Path scorerOutput) throws IOException {
     log.debug("comparing {} {}", goldstandard, compare);
-    String cmd = "lib/reference-coreference-scorers/scorer.pl all " + goldstandard + " " + compare;
-    String str = execExternalCommand(cmd);
-    log.trace("reference-coreference-scorers output: {}", str);
-    if (scorerOutput != null) {
-      try {
-        FileUtils.writeStringToFile(scorerOutput.toFile(), str);
-        if (!options.removeTmpFiles) {
-          log.debug("wrote scorer output to {}", scorerOutput);
-        }
-      } catch (IOException e) {
-        e.printStackTrace();
+    List<String> cmd = Arrays.asList(SCORER_DIRECTORY.resolve("scorer.pl").toString(), SCORER_METRIC, goldstandard.toString(), compare.toString());
+    ScorerOutputParser parser = new ScorerOutputParser();
+
+    // parse lines as they arrive, and copy them to the scorer output file if necessary
+    Writer out = null;
+    try {
+      Consumer<String> consumer = parser;
+      if (scorerOutput != null) {
+        Writer w = out = Files.newBufferedWriter(scorerOutput, StandardCharsets.UTF_8);
+        consumer = consumer.andThen(line -> {
+          try {
+            w.write(line);
+            w.write('\n');
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      }
+      int exitValue = processRunner.run(cmd, log.isTraceEnabled() ? consumer.andThen(line -> log.trace("scorer output: {}", line)) : consumer);
+      if (exitValue != 0) {
+        log.warn("{} exited with {}", cmd, exitValue);
       }
+      if (scorerOutput != null && !options.removeTmpFiles) {
+        log.debug("wrote scorer output to {}", scorerOutput);
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while running " + cmd);
+    } finally {
+      IOUtils.closeQuietly(out);
     }
 
-    return parseScorerOutput(str);
+    ComparisonResult result = parser.getResult();
+    return result == null ? new ComparisonResult() : result;
   }
 
   /**
@@ -225,106 +465,17 @@ public class ReferenceEvaluator {
     return null;
   }
 
-  /**
-   * Call external command
-   * @param cmd
-   * @return its std output as a string
-   */
-  private String execExternalCommand(String cmd) {
-    log.debug("executing command: {}", cmd);
-    Process p = null;
-    try {
-      p = Runtime.getRuntime().exec(cmd);
-    } catch (IOException e1) {
-      e1.printStackTrace();
-    }
-    InputStream is = p.getInputStream();
-    BufferedReader br = new BufferedReader(new InputStreamReader(is));
-    StringWriter sw = new StringWriter();
-    try {
-      while (p.isAlive()) {
-        try {
-          char[] buffer = new char[1024 * 4];
-          int n = 0;
-          while (-1 != (n = br.read(buffer))) {
-            sw.write(buffer, 0, n);
-          }
-          if (p.isAlive()) {
-            Thread.sleep(10);
-          }
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
-      }
-    } catch (InterruptedException e1) {
-      Thread.currentThread().interrupt();
-    }
-    String str = sw.toString();
-    return str;
-  }
-
   /**
    * Get documents, metrics and their respective recall and precision values
    * @param output
    * @return
    */
   public ComparisonResult parseScorerOutput(String output) {
-    String[] lines = output.split("\n");
-
-    if (lines.length < 1) {
-      return null;
+    ScorerOutputParser parser = new ScorerOutputParser();
+    for (String line : output.split("\n")) {
+      parser.accept(line);
     }
-    if (!lines[0].startsWith("version: 8.01")) {
-      log.warn("expected version 8.01, but got {}", lines[0]);
-    }
-    ComparisonResult result = new ComparisonResult();
-
-    // go through all lines
-    String actMetric = null;
-    String actDocid = null;
-    for (int i = 0; i < lines.length; i++) {
-      String line = lines[i];
-
-      // track document and metric info
-      String metricPrefix = "METRIC ";
-      String docidPrefix = "====>";
-      String totalsPrefix = "====== TOTALS =======";
-      if (line.startsWith(metricPrefix)) {
-        actMetric = line.substring(metricPrefix.length(), line.length() - 1);
-      }
-      if (line.startsWith(docidPrefix)) {
-        actDocid = line.substring(docidPrefix.length() + 1, line.length() - 1);
-      }
-      if (line.startsWith(totalsPrefix)) {
-        actDocid = null;
-      }
-
-      // parse line if possible
-      Matcher m = resultPattern.matcher(line);
-      if (m.matches()) {
-        double recallnom = Float.parseFloat(m.group("RecallNom"));
-        double recalldenom = Float.parseFloat(m.group("RecallDenom"));
-        double precisionnom = Float.parseFloat(m.group("PrecisionNom"));
-        double precisiondenom = Float.parseFloat(m.group("PrecisionDenom"));
-
-        /*int recallpercent = Integer.parseInt(m.group("RecallPct"));
-        int precisionpercent = Integer.parseInt(m.group("PrecisionPct"));
-        int f1percent = Integer.parseInt(m.group("F1Pct"));*/
-        if (actMetric == null) {
-          log.error("metric is null, line {}", i);
-        } else if (actDocid == null) {
-          log.error("docid is null, line {}", i);
-        } else {
-          Fraction recall = new Fraction(recallnom, recalldenom);
-          Fraction precision = new Fraction(precisionnom, precisiondenom);
-          ValueEvaluationStatistics value = new ValueEvaluationStatistics(recall, precision);
-          result.docidToMetricToResult.computeIfAbsent(actDocid, k -> new HashMap<>()).put(actMetric, value);
-        }
-      } else if (line.contains("Recall")) {
-        log.debug("pattern didn't match {}", line);
-      }
-    }
-    return result;
+    return parser.getResult();
   }
 
   public static void main(String[] args) throws IOException {
@@ -0,0 +1,261 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.evaluation;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+/**
+ * Cache of the metrics of single documents on disk, so that unchanged documents need not be scored again.
+ * The key is a hash of the gold standard document, the response document and the scorer (including its version).
+ * Every entry is stored in its own file, in subdirectories named after the first two characters of the key.
+ *
+ * The least recently used entries are removed by {@link #evict()} if the cache gets bigger than its maximal size.
+ * Reading an entry updates the modification time of its file.
+ *
+ * @author Thomas Rebele
+ */
+public class ScoreCache {
+
+  private final static Logger log = LoggerFactory.getLogger(ScoreCache.class);
+
+  /**
+   * Increase this if the output of a scorer changes, e.g. because of changes in {@link CoreferenceScorer} or in the CoNLL export
+   */
+  public static final int VERSION = 1;
+
+  private static final String SUFFIX = ".json";
+
+  /** file of an entry, for the eviction */
+  private static class Entry {
+
+    Path path;
+
+    FileTime lastModified;
+
+    long size;
+  }
+
+  private final Path directory;
+
+  private final long maxSize;
+
+  /**
+   * @param directory where the entries are stored; it is created if necessary
+   * @param maxSize maximal size of the entries in bytes
+   */
+  public ScoreCache(Path directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Calculate the key of a document pair.
+   * @param scorer name and options of the scorer that influence the metrics
+   * @param goldstandard
+   * @param response may be null
+   * @return hex string of the hash
+   */
+  public static String key(String scorer, TaggedText goldstandard, TaggedText response) {
+    MessageDigest digest = newDigest();
+    update(digest, "cat-score-cache " + VERSION);
+    update(digest, scorer);
+    update(digest, goldstandard);
+    update(digest, response);
+    return hex(digest.digest());
+  }
+
+  /**
+   * Hash of the contents of files, e.g. of an external scorer, to detect a change of its version
+   * @param files
+   * @return hex string of the hash
+   * @throws IOException
+   */
+  public static String hash(List<Path> files) throws IOException {
+    MessageDigest digest = newDigest();
+    for (Path file : files) {
+      update(digest, file.getFileName().toString());
+      byte[] bytes = Files.readAllBytes(file);
+      update(digest, Integer.toString(bytes.length));
+      digest.update(bytes);
+    }
+    return hex(digest.digest());
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  private static void update(MessageDigest digest, TaggedText tt) {
+    if (tt == null) {
+      update(digest, (String) null);
+      return;
+    }
+    update(digest, tt.id);
+    update(digest, tt.text);
+    update(digest, Integer.toString(tt.mentions.size()));
+    StringBuilder sb = new StringBuilder();
+    for (EntityMention em : tt.mentions) {
+      sb.setLength(0);
+      sb.append(em.start).append(' ').append(em.end);
+      if (em.min != null) {
+        sb.append(' ').append(em.min.start).append(' ').append(em.min.end);
+      }
+      update(digest, sb.toString());
+      update(digest, em.entity);
+    }
+  }
+
+  /**
+   * Add a string with its length, so that the concatenation of several strings is unambiguous
+   */
+  private static void update(MessageDigest digest, String str) {
+    if (str == null) {
+      digest.update((byte) 0);
+      return;
+    }
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    digest.update((byte) 1);
+    digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+    digest.update((byte) ':');
+    digest.update(bytes);
+  }
+
+  private Path path(String key) {
+    return directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+  }
+
+  /**
+   * @return metric to result of the document, or null if the key is not in the cache
+   */
+  public Map<String, EvaluationStatistics> get(String key) {
+    Path path = path(key);
+    if (!Files.exists(path)) {
+      return null;
+    }
+    try {
+      ComparisonResult cr = ComparisonResult.read(path);
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+      return cr.docidToMetricToResult.get(key);
+    } catch (FileNotFoundException | NoSuchFileException e) {
+      // removed in the meantime
+      return null;
+    } catch (IOException e) {
+      log.warn("could not read cache entry {}: {}", path, e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Store the metric to result map of a document
+   */
+  public void put(String key, Map<String, EvaluationStatistics> metricToResult) {
+    Path path = path(key);
+    ComparisonResult cr = new ComparisonResult();
+    cr.docidToMetricToResult.put(key, metricToResult);
+    Path tmp = null;
+    try {
+      Files.createDirectories(path.getParent());
+      // write to a temporary file first, so that concurrent readers never see a partial entry
+      tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+      cr.write(tmp);
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("could not write cache entry {}: {}", path, e.getMessage());
+    } finally {
+      // only left if writing or moving failed; evict() would never remove it
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+          log.warn("could not remove {}: {}", tmp, e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove the least recently used entries until the cache is not bigger than its maximal size
+   */
+  public void evict() {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    List<Entry> entries = new ArrayList<>();
+    long size = 0;
+    try (DirectoryStream<Path> subdirs = Files.newDirectoryStream(directory)) {
+      for (Path subdir : subdirs) {
+        if (!Files.isDirectory(subdir)) {
+          continue;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(subdir, "*" + SUFFIX)) {
+          for (Path file : files) {
+            BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+            Entry entry = new Entry();
+            entry.path = file;
+            entry.lastModified = attr.lastModifiedTime();
+            entry.size = attr.size();
+            entries.add(entry);
+            size += entry.size;
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("could not list cache {}: {}", directory, e.getMessage());
+      return;
+    }
+    if (size <= maxSize) {
+      return;
+    }
+
+    entries.sort(Comparator.comparing(entry -> entry.lastModified));
+    int removed = 0;
+    for (Entry entry : entries) {
+      if (size <= maxSize) {
+        break;
+      }
+      try {
+        Files.deleteIfExists(entry.path);
+        size -= entry.size;
+        removed++;
+      } catch (IOException e) {
+        log.warn("could not remove cache entry {}: {}", entry.path, e.getMessage());
+      }
+    }
+    log.debug("removed {} entries from cache {}", removed, directory);
+  }
+}
@@ -0,0 +1,103 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.evaluation;
+
+import java.util.HashMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tpt.dbweb.cat.datatypes.Fraction;
+
+/**
+ * Parses the output of lib/reference-coreference-scorers line by line, e.g. while the scorer is still running.
+ * Collects documents, metrics and their respective recall and precision values.
+ *
+ * @author Thomas Rebele
+ */
+public class ScorerOutputParser implements Consumer<String> {
+
+  private final static Logger log = LoggerFactory.getLogger(ScorerOutputParser.class);
+
+  private static final String metricPrefix = "METRIC ";
+
+  private static final String docidPrefix = "====>";
+
+  private static final String totalsPrefix = "====== TOTALS =======";
+
+  private static final Pattern resultPattern;
+
+  static {
+    String floatingPointRegex = "\\d*\\.?\\d+";
+    String nomRegex = "\\((?<RecallNom>" + floatingPointRegex + ")\\s*";
+    String denomRegex = "\\s*(?<RecallDenom>" + floatingPointRegex + ")\\)";
+    String percentRegex = "\\s*(?<RecallPct>" + floatingPointRegex + ")\\%\\s*";
+    String recallPattern = "Recall:\\s*(?:" + nomRegex + "/" + denomRegex + ")?" + percentRegex;
+    String precisionPattern = recallPattern.replaceAll("Recall", "Precision");
+    String f1Pattern = recallPattern.replaceAll("Recall", "F1");
+    resultPattern = Pattern.compile(recallPattern + precisionPattern + f1Pattern + ".*");
+  }
+
+  private final ComparisonResult result = new ComparisonResult();
+
+  private int lineNumber = 0;
+
+  private String actMetric = null;
+
+  private String actDocid = null;
+
+  @Override
+  public void accept(String line) {
+    if (lineNumber++ == 0 && !line.startsWith("version: 8.01")) {
+      log.warn("expected version 8.01, but got {}", line);
+    }
+
+    // track document and metric info
+    if (line.startsWith(metricPrefix)) {
+      actMetric = line.substring(metricPrefix.length(), line.length() - 1);
+    }
+    if (line.startsWith(docidPrefix)) {
+      actDocid = line.substring(docidPrefix.length() + 1, line.length() - 1);
+    }
+    if (line.startsWith(totalsPrefix)) {
+      actDocid = null;
+    }
+
+    // parse line if possible
+    if (!line.contains("Recall")) {
+      return;
+    }
+    Matcher m = resultPattern.matcher(line);
+    if (m.matches()) {
+      double recallnom = Float.parseFloat(m.group("RecallNom"));
+      double recalldenom = Float.parseFloat(m.group("RecallDenom"));
+      double precisionnom = Float.parseFloat(m.group("PrecisionNom"));
+      double precisiondenom = Float.parseFloat(m.group("PrecisionDenom"));
+
+      if (actMetric == null) {
+        log.error("metric is null, line {}", lineNumber - 1);
+      } else if (actDocid == null) {
+        log.error("docid is null, line {}", lineNumber - 1);
+      } else {
+        Fraction recall = new Fraction(recallnom, recalldenom);
+        Fraction precision = new Fraction(precisionnom, precisiondenom);
+        ValueEvaluationStatistics value = new ValueEvaluationStatistics(recall, precision);
+        result.docidToMetricToResult.computeIfAbsent(actDocid, k -> new HashMap<>()).put(actMetric, value);
+      }
+    } else {
+      log.debug("pattern didn't match {}", line);
+    }
+  }
+
+  /**
+   * @return documents and metrics parsed so far, null if no line was parsed
+   */
+  public ComparisonResult getResult() {
+    return lineNumber == 0 ? null : result;
+  }
+}
@@ -0,0 +1,337 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Byte offset, length and id of every &lt;article&gt; ... &lt;/article&gt; of a tagged text XML file.
+ * The index is stored next to the XML file (see {@link #sidecarPath(Path)}), and rebuilt if size or modification time of the XML file changed.
+ * Offsets are byte offsets, so the file needs to be encoded in UTF-8 (or another ASCII compatible encoding).
+ *
+ * @author Thomas Rebele
+ */
+public class ArticleIndex {
+
+  private final static Logger log = LoggerFactory.getLogger(ArticleIndex.class);
+
+  private static final int MAGIC = 0x43415449; // "CATI"
+
+  private static final int VERSION = 1;
+
+  private static final Pattern idPattern = Pattern.compile("\\sid\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")");
+
+  private long fileSize, lastModified;
+
+  private int size = 0;
+
+  private long[] offsets = new long[16];
+
+  private int[] lengths = new int[16];
+
+  private String[] ids = new String[16];
+
+  private Map<String, Integer> idToIndex = null;
+
+  private ArticleIndex() {
+  }
+
+  /**
+   * Index of the XML file, read from the sidecar file if it is up to date, otherwise built and stored in the sidecar file.
+   * @param xml
+   * @return
+   * @throws IOException
+   */
+  public static ArticleIndex load(Path xml) throws IOException {
+    long fileSize = Files.size(xml);
+    long lastModified = Files.getLastModifiedTime(xml).toMillis();
+    Path sidecar = sidecarPath(xml);
+    if (Files.exists(sidecar)) {
+      try {
+        ArticleIndex index = read(sidecar);
+        if (index.fileSize == fileSize && index.lastModified == lastModified) {
+          return index;
+        }
+        log.info("index {} is outdated", sidecar);
+      } catch (IOException e) {
+        log.warn("cannot read index {}: {}", sidecar, e.getMessage());
+      }
+    }
+
+    ArticleIndex index = build(xml);
+    try {
+      index.write(sidecar);
+    } catch (IOException e) {
+      log.warn("cannot write index {}: {}", sidecar, e.getMessage());
+    }
+    return index;
+  }
+
+  public static Path sidecarPath(Path xml) {
+    return xml.resolveSibling(xml.getFileName() + ".artidx");
+  }
+
+  /**
+   * Scan the XML file for articles. Comments, CDATA sections and processing instructions are skipped.
+   * @param xml
+   * @return
+   * @throws IOException
+   */
+  public static ArticleIndex build(Path xml) throws IOException {
+    ArticleIndex index = new ArticleIndex();
+    index.fileSize = Files.size(xml);
+    index.lastModified = Files.getLastModifiedTime(xml).toMillis();
+    try (Scanner s = new Scanner(Files.newInputStream(xml))) {
+      long articleStart = -1;
+      String articleId = null;
+      int c;
+      while ((c = s.read()) >= 0) {
+        if (c != '<') {
+          continue;
+        }
+        long tagStart = s.position - 1;
+        c = s.read();
+        if (c == '!') {
+          c = s.read();
+          if (c == '-') {
+            s.skipTo("-->");
+          } else if (c == '[') {
+            s.skipTo("]]>");
+          } else {
+            s.skipTo(">");
+          }
+        } else if (c == '?') {
+          s.skipTo("?>");
+        } else if (c == '/') {
+          String name = s.readName(-1);
+          s.skipTo(">");
+          if ("article".equals(name) && articleStart >= 0) {
+            index.add(articleStart, s.position - articleStart, articleId);
+            articleStart = -1;
+          }
+        } else {
+          String name = s.readName(c);
+          String tag = s.readTag();
+          if ("article".equals(name) && !tag.endsWith("/")) {
+            if (articleStart >= 0) {
+              log.warn("article at byte {} not closed in {}", articleStart, xml);
+            }
+            articleStart = tagStart;
+            Matcher m = idPattern.matcher(tag);
+            articleId = m.find() ? StringEscapeUtils.unescapeXml(m.group(1) != null ? m.group(1) : m.group(2)) : null;
+          }
+        }
+      }
+    }
+    return index;
+  }
+
+  private void add(long offset, long length, String id) {
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("article " + id + " too long: " + length + " bytes");
+    }
+    if (size == offsets.length) {
+      offsets = Arrays.copyOf(offsets, 2 * size);
+      lengths = Arrays.copyOf(lengths, 2 * size);
+      ids = Arrays.copyOf(ids, 2 * size);
+    }
+    offsets[size] = offset;
+    lengths[size] = (int) length;
+    ids[size] = id;
+    size++;
+  }
+
+  private static ArticleIndex read(Path sidecar) throws IOException {
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+      if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+        throw new IOException("unknown format");
+      }
+      ArticleIndex index = new ArticleIndex();
+      index.fileSize = dis.readLong();
+      index.lastModified = dis.readLong();
+      int count = dis.readInt();
+      for (int i = 0; i < count; i++) {
+        long offset = dis.readLong();
+        int length = dis.readInt();
+        String id = dis.readBoolean() ? dis.readUTF() : null;
+        index.add(offset, length, id);
+      }
+      return index;
+    }
+  }
+
+  private void write(Path sidecar) throws IOException {
+    try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sidecar)))) {
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+      dos.writeLong(fileSize);
+      dos.writeLong(lastModified);
+      dos.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        dos.writeLong(offsets[i]);
+        dos.writeInt(lengths[i]);
+        dos.writeBoolean(ids[i] != null);
+        if (ids[i] != null) {
+          dos.writeUTF(ids[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return number of articles
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return byte offset of the &lt;article&gt; tag
+   */
+  public long getOffset(int article) {
+    return offsets[article];
+  }
+
+  /**
+   * @return length in bytes, including &lt;article&gt; and &lt;/article&gt;
+   */
+  public int getLength(int article) {
+    return lengths[article];
+  }
+
+  public String getId(int article) {
+    return ids[article];
+  }
+
+  /**
+   * @return position of the first article with the id, or -1
+   */
+  public synchronized int indexOf(String id) {
+    if (idToIndex == null) {
+      idToIndex = new HashMap<>();
+      for (int i = size - 1; i >= 0; i--) {
+        if (ids[i] != null) {
+          idToIndex.put(ids[i], i);
+        }
+      }
+    }
+    return idToIndex.getOrDefault(id, -1);
+  }
+
+  /**
+   * Reads bytes and keeps track of the position
+   */
+  private static class Scanner implements AutoCloseable {
+
+    private final InputStream is;
+
+    private final byte[] buffer = new byte[1 << 16];
+
+    private int bufferPos = 0, bufferEnd = 0;
+
+    /** number of bytes read */
+    long position = 0;
+
+    private final ByteArrayOutputStream tag = new ByteArrayOutputStream();
+
+    Scanner(InputStream is) {
+      this.is = is;
+    }
+
+    int read() throws IOException {
+      if (bufferPos == bufferEnd) {
+        bufferEnd = is.read(buffer);
+        bufferPos = 0;
+        if (bufferEnd <= 0) {
+          bufferEnd = 0;
+          return -1;
+        }
+      }
+      position++;
+      return buffer[bufferPos++] & 0xff;
+    }
+
+    /**
+     * Consume everything up to and including str, which has at most 4 ASCII characters
+     */
+    void skipTo(String str) throws IOException {
+      // compare the last (up to 4) bytes with str
+      int target = 0, mask = (int) ((1L << (8 * str.length())) - 1), window = 0, c;
+      for (int i = 0; i < str.length(); i++) {
+        target = (target << 8) | str.charAt(i);
+      }
+      for (int n = 1; (c = read()) >= 0; n++) {
+        window = ((window << 8) | c) & mask;
+        if (window == target && n >= str.length()) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Read an element name
+     * @param first first character if already read, or -1
+     */
+    String readName(int first) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      int c = first < 0 ? read() : first;
+      while (c >= 0 && c != '>' && c != '/' && !Character.isWhitespace(c)) {
+        sb.append((char) c);
+        c = read();
+      }
+      // keep the delimiter for readTag
+      if (c >= 0) {
+        bufferPos--;
+        position--;
+      }
+      return sb.toString();
+    }
+
+    /**
+     * Read the rest of a start tag, including the closing '&gt;'
+     * @return attributes of the tag, followed by "/" for empty elements
+     */
+    String readTag() throws IOException {
+      tag.reset();
+      int c, quote = 0;
+      while ((c = read()) >= 0) {
+        if (quote != 0) {
+          if (c == quote) {
+            quote = 0;
+          }
+        } else if (c == '\'' || c == '"') {
+          quote = c;
+        } else if (c == '>') {
+          break;
+        }
+        tag.write(c);
+      }
+      return new String(tag.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+      is.close();
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Texts of articles, stored in a memory-mapped file instead of the heap. The texts are accessed as {@link CharSequence} views of the file,
+ * so the operating system decides how much of it stays in memory.
+ *
+ * The texts are stored as UTF-16 characters, so that every character can be accessed directly. The file is mapped in segments of
+ * {@value #SEGMENT_CHARS} characters; a text never crosses the border of a segment.
+ *
+ * @author Thomas Rebele
+ */
+public class ArticleTextStore implements Closeable {
+
+  private final static Logger log = LoggerFactory.getLogger(ArticleTextStore.class);
+
+  /** maximal length of a text, and size of the mapped segments (in characters) */
+  public static final int SEGMENT_CHARS = 1 << 29;
+
+  private final Path file;
+
+  private final boolean deleteOnClose;
+
+  private final FileChannel channel;
+
+  private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+  /** number of characters in the file */
+  private long length = 0;
+
+  private int size = 0;
+
+  private long[] starts = new long[16];
+
+  private int[] lengths = new int[16];
+
+  private CharBuffer[] segments = new CharBuffer[0];
+
+  /**
+   * Create an empty store. If the file exists, it is overwritten.
+   * @param file
+   * @param deleteOnClose whether to delete the file when the store is closed
+   * @throws IOException
+   */
+  public ArticleTextStore(Path file, boolean deleteOnClose) throws IOException {
+    this.file = file;
+    this.deleteOnClose = deleteOnClose;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Create an empty store in a temporary file, which is deleted when the store is closed
+   */
+  public static ArticleTextStore createTemporary() throws IOException {
+    return new ArticleTextStore(Files.createTempFile("cat-articles", ".txt16"), true);
+  }
+
+  /**
+   * Append a text
+   * @param text
+   * @return number of the text in the store
+   * @throws IOException
+   */
+  public synchronized int add(CharSequence text) throws IOException {
+    if (text.length() > SEGMENT_CHARS) {
+      throw new IllegalArgumentException("text too long: " + text.length() + " characters");
+    }
+    long start = length;
+    if (start % SEGMENT_CHARS + text.length() > SEGMENT_CHARS) {
+      // continue in the next segment
+      start = (start / SEGMENT_CHARS + 1) * SEGMENT_CHARS;
+    }
+
+    long pos = 2 * start;
+    for (int i = 0; i < text.length();) {
+      buffer.clear();
+      for (; i < text.length() && buffer.hasRemaining(); i++) {
+        buffer.putChar(text.charAt(i));
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        pos += channel.write(buffer, pos);
+      }
+    }
+    length = start + text.length();
+
+    if (size == starts.length) {
+      starts = Arrays.copyOf(starts, 2 * size);
+      lengths = Arrays.copyOf(lengths, 2 * size);
+    }
+    starts[size] = start;
+    lengths[size] = text.length();
+    return size++;
+  }
+
+  /**
+   * @return number of texts
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * @param text number of the text
+   * @return length in characters
+   */
+  public synchronized int length(int text) {
+    return lengths[text];
+  }
+
+  /**
+   * View of a text. It stays valid until the store is closed.
+   * @param text number of the text
+   * @return
+   */
+  public synchronized CharSequence get(int text) {
+    if (text < 0 || text >= size) {
+      throw new IndexOutOfBoundsException("text " + text + ", size " + size);
+    }
+    int segment = (int) (starts[text] / SEGMENT_CHARS);
+    int offset = (int) (starts[text] % SEGMENT_CHARS);
+    CharBuffer view = segment(segment, offset + lengths[text]).duplicate();
+    view.limit(offset + lengths[text]);
+    view.position(offset);
+    return view.slice();
+  }
+
+  /**
+   * Map a segment, such that it contains at least the given number of characters. Segments are mapped again if the file has grown.
+   */
+  private CharBuffer segment(int segment, int minLength) {
+    if (segment >= segments.length) {
+      segments = Arrays.copyOf(segments, segment + 1);
+    }
+    CharBuffer cb = segments[segment];
+    if (cb == null || cb.capacity() < minLength) {
+      long start = (long) segment * SEGMENT_CHARS;
+      long chars = Math.min(SEGMENT_CHARS, length - start);
+      try {
+        cb = channel.map(MapMode.READ_ONLY, 2 * start, 2 * chars).asCharBuffer();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      segments[segment] = cb;
+    }
+    return cb;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    segments = new CharBuffer[0];
+    channel.close();
+    if (deleteOnClose) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        // e.g. on Windows, as long as the file is mapped
+        log.warn("cannot delete {}: {}", file, e.getMessage());
+      }
+    }
+  }
+}
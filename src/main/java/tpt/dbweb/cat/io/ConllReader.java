@@ -4,103 +4,223 @@
 
 package tpt.dbweb.cat.io;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javatools.datatypes.PeekIterator;
 import tpt.dbweb.cat.datatypes.EntityMention;
 import tpt.dbweb.cat.datatypes.TaggedText;
 
+/**
+ * Read documents in CoNLL format, i.e. one word per line with the coreference chains in the last column (e.g. "(1", "1)" or "(2)|3)").
+ * Documents are enclosed by #begin document ... #end document. See http://conll.cemantix.org/2011/data.html for details.
+ * The words of a sentence are separated by a space, sentences by a newline.
+ *
+ * @author Thomas Rebele
+ */
 public class ConllReader {
 
   private final static Logger log = LoggerFactory.getLogger(ConllReader.class);
 
+  /** column of the words in CoNLL-2011/2012 files */
+  public static final int CONLL_2012_WORD_COLUMN = 3;
+
   /**
    * Read tabular conll file and parse the last column as coreferences.
    * @param file
    * @param textColumn
-   * @return
+   * @return documents in the order of the file
    */
   public static List<TaggedText> readConllFile(Path file, int textColumn) {
     List<TaggedText> result = new ArrayList<>();
-    Map<String, List<List<String>>> docs = ConllWriter.readConllDocuments(file);
-
-    // for each document between '#begin document' and '#end document'
-    docs.forEach((docId, table) -> {
-      TaggedText tt = new TaggedText();
-      tt.id = docId;
-
-      // track starting corefs
-      StringBuilder sb = new StringBuilder();
-      Map<String, List<EntityMention>> entityIdToMentions = new HashMap<>();
-
-      // for each line in document
-      table.forEach(row -> {
-        // add whitespace characters between words
-        if (row.size() == 0) {
-          sb.append("\n");
-          return;
-        }
-        if (sb.length() > 0) {
-          if (sb.charAt(sb.length() - 1) != '\n') {
-            sb.append(" ");
+    try {
+      iterateConllFile(file, textColumn).forEachRemaining(result::add);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return result;
+  }
+
+  /**
+   * Read tabular conll file lazily, one document at a time. The file is closed after the last document.
+   * @param file
+   * @param textColumn
+   * @return
+   * @throws IOException
+   */
+  public static Iterator<TaggedText> iterateConllFile(Path file, int textColumn) throws IOException {
+    BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    return new PeekIterator<TaggedText>() {
+
+      int lineNumber = 0;
+
+      @Override
+      protected TaggedText internalNext() throws Exception {
+        DocumentBuilder builder = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lineNumber++;
+          if (line.startsWith("#")) {
+            if (line.startsWith("#begin document")) {
+              if (builder != null) {
+                log.error("{}:{}: document {} has no end", file, lineNumber, builder.tt.id);
+              }
+              builder = new DocumentBuilder(line.substring(Math.min(line.length(), "#begin document".length() + 1)));
+            } else if (line.startsWith("#end document")) {
+              if (builder == null) {
+                log.error("{}:{}: doc id is null, cannot read conll file", file, lineNumber);
+                continue;
+              }
+              return builder.build();
+            }
+          } else if (builder != null) {
+            builder.addRow(line, textColumn);
           }
         }
+        if (builder != null) {
+          log.error("{}: document {} has no end", file, builder.tt.id);
+        }
+        return null;
+      }
 
-        String word = row.get(textColumn);
-        String corefCol = row.get(row.size() - 1);
-
-        // parse starting/ending corefs
-        List<String> corefs = Arrays.asList(corefCol.split("\\|"));
-        List<String> endingCorefs = new ArrayList<>();
-        corefs.forEach(coref -> {
-          String entityId = coref.replace("(", "").replace(")", "");
-          if (coref.startsWith("(")) {
-            EntityMention em = new EntityMention(null, sb.length(), sb.length(), entityId);
-            entityIdToMentions.computeIfAbsent(entityId, k -> new ArrayList<>()).add(em);
-          }
-          if (coref.endsWith(")")) {
-            endingCorefs.add(entityId);
-          }
-        });
+      @Override
+      public void close() {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    };
+  }
 
-        // build text
-        sb.append(word);
+  /**
+   * Collects text and mentions of a document row by row
+   */
+  private static class DocumentBuilder {
 
-        // deal with ending corefs
-        endingCorefs.forEach(coref -> {
-          List<EntityMention> ems = entityIdToMentions.get(coref);
-          if (ems.size() == 0) {
-            log.error("coref {} has no starting coref?", coref);
-            return;
-          }
+    final TaggedText tt = new TaggedText();
 
-          EntityMention last = ems.remove(ems.size() - 1);
-          last.end = sb.length();
-          tt.mentions.add(last);
-        });
+    final StringBuilder sb = new StringBuilder();
 
-      });
+    /** mentions that have not yet ended, per entity */
+    final Map<String, List<EntityMention>> entityIdToMentions = new HashMap<>();
 
+    final List<String> endingCorefs = new ArrayList<>();
+
+    DocumentBuilder(String id) {
+      tt.id = id;
+    }
+
+    /**
+     * Parse a row. Columns are separated by whitespace, like String.split("\\s+").
+     */
+    void addRow(String line, int textColumn) {
+      // find the text column and the last column
+      int column = 0, wordStart = -1, wordEnd = -1, lastStart = -1, lastEnd = -1;
+      int pos = 0;
+      while (pos < line.length()) {
+        int start = pos;
+        while (pos < line.length() && !isSpace(line.charAt(pos))) {
+          pos++;
+        }
+        if (column == textColumn) {
+          wordStart = start;
+          wordEnd = pos;
+        }
+        lastStart = start;
+        lastEnd = pos;
+        column++;
+        while (pos < line.length() && isSpace(line.charAt(pos))) {
+          pos++;
+        }
+      }
+
+      // add whitespace characters between words
+      if (column == 0 || (column == 1 && lastStart == lastEnd)) {
+        sb.append("\n");
+        return;
+      }
+      if (wordStart < 0) {
+        log.error("document {}: row has no column {}: {}", tt.id, textColumn, line);
+        return;
+      }
+      if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n') {
+        sb.append(" ");
+      }
+
+      // parse starting/ending corefs, separated by |
+      endingCorefs.clear();
+      for (int corefStart = lastStart; corefStart <= lastEnd;) {
+        int corefEnd = line.indexOf('|', corefStart);
+        if (corefEnd < 0 || corefEnd > lastEnd) {
+          corefEnd = lastEnd;
+        }
+        int idStart = corefStart, idEnd = corefEnd;
+        while (idStart < idEnd && line.charAt(idStart) == '(') {
+          idStart++;
+        }
+        while (idEnd > idStart && line.charAt(idEnd - 1) == ')') {
+          idEnd--;
+        }
+        String entityId = line.substring(idStart, idEnd);
+        if (idStart > corefStart) {
+          EntityMention em = new EntityMention(null, sb.length(), sb.length(), entityId);
+          em.internEntity();
+          entityIdToMentions.computeIfAbsent(entityId, k -> new ArrayList<>()).add(em);
+        }
+        if (idEnd < corefEnd) {
+          endingCorefs.add(entityId);
+        }
+        corefStart = corefEnd + 1;
+      }
+
+      // build text
+      sb.append(line, wordStart, wordEnd);
+
+      // deal with ending corefs
+      for (String coref : endingCorefs) {
+        List<EntityMention> ems = entityIdToMentions.get(coref);
+        if (ems == null || ems.size() == 0) {
+          log.error("coref {} has no starting coref?", coref);
+          continue;
+        }
+        EntityMention last = ems.remove(ems.size() - 1);
+        last.end = sb.length();
+        tt.mentions.add(last);
+      }
+    }
+
+    TaggedText build() {
       // entity mentions which do not close
       for (String entityId : entityIdToMentions.keySet()) {
-        for (EntityMention em : entityIdToMentions.get(entityId)) {
+        for (int i = 0; i < entityIdToMentions.get(entityId).size(); i++) {
           log.error("coref {} has no endig tag", entityId);
         }
       }
 
       tt.text = sb.toString();
       tt.mentions.forEach(em -> em.text = tt.text);
-      result.add(tt);
-    });
+      return tt;
+    }
+  }
 
-    return result;
+  /**
+   * Whitespace as in the regex \s
+   */
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
   }
 
 }
@@ -4,6 +4,7 @@
 
 package tpt.dbweb.cat.io;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
@@ -25,9 +26,8 @@ import org.slf4j.LoggerFactory;
 import tools.aligner.TextSpanAligner;
 import tpt.dbweb.cat.datatypes.TaggedText;
 import tpt.dbweb.cat.datatypes.TextSpan;
-import tpt.dbweb.cat.datatypes.iterators.EntityMentionPos;
-import tpt.dbweb.cat.datatypes.iterators.EntityMentionPosIterator;
 import tpt.dbweb.cat.datatypes.iterators.EntityMentionPosIterator.PosType;
+import tpt.dbweb.cat.datatypes.iterators.MentionBoundaries;
 import tpt.dbweb.cat.tools.RegexWordTokenizer;
 import tpt.dbweb.cat.tools.Tokenizer;
 
@@ -68,17 +68,29 @@ public class ConllWriter {
     writeTTList(Arrays.asList(tt), outputFile);
   }
 
+  /**
+   * Output tagged texts in conll format. The documents are converted one at a time, so the list may create them on access,
+   * like {@link StoredCorpus#asList()}.
+   * @param tts
+   * @param outputFile
+   */
   public void writeTTList(List<TaggedText> tts, Path outputFile) {
-    List<ConllDocumentPart> parts = new ArrayList<>();
+    try {
+      Files.createDirectories(outputFile.getParent());
+    } catch (IOException e1) {
+      e1.printStackTrace();
+    }
     Tokenizer wd = new RegexWordTokenizer();
-    for (TaggedText tt : tts) {
-      ConllDocumentPart part = new ConllDocumentPart();
-      part.tt = tt;
-      part.title = tt.id;
-      part.alignToWords = wd.getTokens(tt.text).stream().map(ts -> ts.spanString()).collect(Collectors.toList());
-      parts.add(part);
+    try (Writer w = new BufferedWriter(new FileWriter(outputFile.toFile()))) {
+      for (TaggedText tt : tts) {
+        w.write("#begin document " + tt.id + "\n");
+        // the tokens are spans of tt.text, so they need no alignment
+        convert(tt, wd.getTokens(tt.text), "", w);
+        w.write("#end document\n");
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
     }
-    writePartList(parts, outputFile);
   }
 
   public void writePartList(List<ConllDocumentPart> parts, Path outputFile) {
@@ -96,11 +108,11 @@ public class ConllWriter {
     } catch (IOException e1) {
       e1.printStackTrace();
     }
-    try (Writer w = new FileWriter(outputFile.toFile(), append)) {
+    try (Writer w = new BufferedWriter(new FileWriter(outputFile.toFile(), append))) {
       for (ConllDocumentPart e : parts) {
         w.write("#begin document " + e.title + "\n");
-        List<TextSpan> wordSpans = getWordSpans(e.tt.text, e.alignToWords);
-        w.write(convert(e.tt, wordSpans, ""));
+        List<TextSpan> wordSpans = e.alignToSpans != null ? e.alignToSpans : getWordSpans(e.tt.text, e.alignToWords);
+        convert(e.tt, wordSpans, "", w);
         w.write("#end document\n");
       }
     } catch (IOException e) {
@@ -128,14 +140,8 @@ public class ConllWriter {
       }
     }
 
-    String sbStr = sb.toString();
-    spans = new TextSpanAligner<>(sbStr, text).align(spans);
-
-    spans.forEach(span -> {
-      if (span != null) {
-        span.text = text;
-      }
-    });
+    // the spans are sorted, so they can be aligned in one pass
+    new TextSpanAligner<>(sb.toString(), text).alignInPlace(spans);
     return spans;
   }
 
@@ -206,75 +212,99 @@ public class ConllWriter {
   }
 
   /**
-   * Convert a tagged text to SemEval/Conll format for reference-coreference-scorers.
+   * Convert a tagged text to SemEval/Conll format for reference-coreference-scorers. The rows are written one by one.
    * @param tt
    * @param words to which the mentions should be aligned (its best to use word column of Conll input files)
    * @param prefix
+   * @param w
    * @throws IOException
    */
-  private String convert(TaggedText tt, List<TextSpan> words, String prefix) throws IOException {
-    EntityMentionPosIterator it = new EntityMentionPosIterator(tt.mentions);
-    EntityMentionPos pos = it.next();
+  private void convert(TaggedText tt, List<TextSpan> words, String prefix, Writer w) throws IOException {
+    MentionBoundaries mentionPos = new MentionBoundaries(tt.mentions);
+    mentionPos.advance();
 
-    List<List<String>> rows = new ArrayList<>();
     Map<String, Integer> entityToNumber = new HashMap<>();
+    List<String> startingEntities = new ArrayList<>(), endingEntities = new ArrayList<>();
     for (TextSpan word : words) {
       // assemble beginning of row
       if (word == null) {
-        rows.add(null);
+        w.write('\n');
         continue;
       }
-      ArrayList<String> row = new ArrayList<>();
       if (prefix != null && prefix.length() > 0) {
-        row.add(prefix);
+        w.write(prefix);
+        w.write(' ');
       }
-      // escape brackets
-      String wordStr = word.toString();
-      wordStr = wordStr.replace("(", "-LBR-");
-      wordStr = wordStr.replace(")", "-RBR-");
-      row.add(wordStr);
+      writeWord(word, w);
 
       // check which entities start or end at this word
-      List<String> startingEntities = new ArrayList<>(), endingEntities = new ArrayList<>();
-      while (pos != null && pos.pos <= word.end) {
-        if (pos.posType == PosType.START) {
+      startingEntities.clear();
+      endingEntities.clear();
+      while (mentionPos.pos() <= word.end) {
+        if (mentionPos.posType() == PosType.START) {
           // fixes <one-character-word> <mark>...</mark>
-          if (pos.pos == word.end) {
+          if (mentionPos.pos() == word.end) {
             break;
           }
-          startingEntities.add(pos.em.entity);
+          startingEntities.add(tt.mentions.get(mentionPos.row()).entity);
         }
-        if (pos.posType == PosType.END) {
-          endingEntities.add(pos.em.entity);
+        if (mentionPos.posType() == PosType.END) {
+          endingEntities.add(tt.mentions.get(mentionPos.row()).entity);
         }
-        pos = it.next();
+        mentionPos.advance();
       }
 
-      // construct boundaries of the form (1 or (2) or 3)
-      List<String> boundaries = new ArrayList<>();
+      // write boundaries of the form (1 or (2) or 3), separated by |
+      w.write(' ');
+      if (startingEntities.isEmpty() && endingEntities.isEmpty()) {
+        w.write('-');
+      }
+      boolean first = true;
       for (String entity : startingEntities) {
         int num = entityToNumber.computeIfAbsent(entity, k -> entityToNumber.size() + 1);
-        String boundary = "(" + num;
-        if (endingEntities.contains(entity)) {
-          boundary += ")";
-          endingEntities.remove(entity);
+        if (!first) {
+          w.write('|');
+        }
+        first = false;
+        w.write('(');
+        w.write(Integer.toString(num));
+        if (endingEntities.remove(entity)) {
+          w.write(')');
         }
-        boundaries.add(boundary);
       }
       for (String entity : endingEntities) {
         int num = entityToNumber.computeIfAbsent(entity, k -> entityToNumber.size() + 1);
-        boundaries.add(num + ")");
+        if (!first) {
+          w.write('|');
+        }
+        first = false;
+        w.write(Integer.toString(num));
+        w.write(')');
       }
+      w.write('\n');
+    }
+  }
 
-      // assemble end of row
-      String boundaryStr = String.join("|", boundaries);
-      if (boundaryStr == null || boundaryStr.length() == 0) {
-        boundaryStr = "-";
+  /**
+   * Write the word with escaped brackets, like {@link TextSpan#toString()}
+   */
+  private static void writeWord(TextSpan word, Writer w) throws IOException {
+    if (word.info(false) != null || word.text == null || word.start < 0 || word.end > word.text.length() || word.end < word.start) {
+      w.write(word.toString().replace("(", "-LBR-").replace(")", "-RBR-"));
+      return;
+    }
+    for (int i = word.start; i < word.end; i++) {
+      char c = word.text.charAt(i);
+      if (c == '(') {
+        w.write("-LBR-");
+      } else if (c == ')') {
+        w.write("-RBR-");
+      } else if (c == '\n') {
+        w.write(" \u21B5 ");
+      } else {
+        w.write(c);
       }
-      row.add(boundaryStr);
-      rows.add(row);
     }
-    return justPrint(rows);
   }
 
   /**
@@ -318,20 +348,4 @@ public class ConllWriter {
 
     return sb.toString();
   }
-
-  /**
-   * Format as table, with space separated columns
-   * @param rows
-   * @return
-   */
-  private static String justPrint(List<List<String>> rows) {
-    StringBuilder sb = new StringBuilder();
-    rows.forEach(row -> {
-      if (row != null) {
-        sb.append(String.join(" ", row));
-      }
-      sb.append("\n");
-    });
-    return sb.toString();
-  }
 }
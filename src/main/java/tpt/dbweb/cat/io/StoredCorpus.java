@@ -0,0 +1,195 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+import tpt.dbweb.cat.datatypes.MentionTable;
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+/**
+ * Tagged texts whose texts are kept in an {@link ArticleTextStore}, for corpora that do not fit on the heap.
+ * Only ids, info maps and mentions stay on the heap; the mentions of an article are kept in a {@link MentionTable}.
+ * They do not reference a string, instead their offsets refer to the text of the article in the store,
+ * i.e. they are identified by article number and offsets.
+ *
+ * Use {@link #getText(int)} and {@link #getArticle(int)} to work on the views of the store,
+ * or {@link #iterator()} and {@link #asList()} to get complete tagged texts one by one. As long as these are not kept,
+ * only the texts of the articles in use are on the heap.
+ *
+ * @author Thomas Rebele
+ */
+public class StoredCorpus implements Iterable<TaggedText>, Closeable {
+
+  private final ArticleTextStore store;
+
+  /** article without text */
+  private static class Article {
+
+    String id;
+
+    HashMap<String, String> infoMap;
+
+    MentionTable mentions;
+  }
+
+  private final List<Article> articles = new ArrayList<>();
+
+  /**
+   * Create an empty corpus, with a store in a temporary file
+   * @throws IOException
+   */
+  public StoredCorpus() throws IOException {
+    this.store = ArticleTextStore.createTemporary();
+  }
+
+  /**
+   * Create a corpus with the tagged texts
+   * @param tts
+   * @return
+   * @throws IOException
+   */
+  public static StoredCorpus create(Iterator<TaggedText> tts) throws IOException {
+    StoredCorpus corpus = new StoredCorpus();
+    try {
+      while (tts.hasNext()) {
+        corpus.add(tts.next());
+      }
+    } catch (IOException | RuntimeException e) {
+      corpus.close();
+      throw e;
+    }
+    return corpus;
+  }
+
+  /**
+   * Append a tagged text. The text is written to the store, the corpus keeps the mentions in a table without text.
+   * @param tt
+   * @return number of the article
+   * @throws IOException
+   */
+  public synchronized int add(TaggedText tt) throws IOException {
+    Article article = new Article();
+    article.id = tt.id;
+    article.infoMap = tt.infoMap;
+    article.mentions = MentionTable.of(null, tt.mentions);
+    store.add(tt.text == null ? "" : tt.text);
+    articles.add(article);
+    return articles.size() - 1;
+  }
+
+  /**
+   * @return number of articles
+   */
+  public synchronized int size() {
+    return articles.size();
+  }
+
+  /**
+   * @return length of the text of an article, without reading it
+   */
+  public int getTextLength(int article) {
+    return store.length(article);
+  }
+
+  /**
+   * @return view of the text of an article
+   */
+  public CharSequence getText(int article) {
+    return store.get(article);
+  }
+
+  /**
+   * @return mentions of an article, whose offsets refer to {@link #getText(int)}
+   */
+  public synchronized MentionTable getMentions(int article) {
+    return articles.get(article).mentions;
+  }
+
+  /**
+   * Article without its text. The mentions are a read-only view of {@link #getMentions(int)}, their text is null.
+   */
+  public synchronized TaggedText getArticle(int article) {
+    Article stored = articles.get(article);
+    TaggedText tt = new TaggedText();
+    tt.id = stored.id;
+    tt.infoMap = stored.infoMap;
+    tt.mentions = stored.mentions.asList();
+    return tt;
+  }
+
+  /**
+   * @return copy of the article, with its text and mentions on the heap
+   */
+  public TaggedText get(int article) {
+    Article stored;
+    synchronized (this) {
+      stored = articles.get(article);
+    }
+    TaggedText tt = new TaggedText();
+    tt.id = stored.id;
+    tt.infoMap = stored.infoMap;
+    tt.text = getText(article).toString();
+    tt.mentions = new ArrayList<>(stored.mentions.size());
+    for (int row = 0; row < stored.mentions.size(); row++) {
+      tt.mentions.add(stored.mentions.get(row, tt.text));
+    }
+    return tt;
+  }
+
+  /**
+   * Iterate over copies of the articles, see {@link #get(int)}
+   */
+  @Override
+  public Iterator<TaggedText> iterator() {
+    return new Iterator<TaggedText>() {
+
+      int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < size();
+      }
+
+      @Override
+      public TaggedText next() {
+        return get(next++);
+      }
+    };
+  }
+
+  /**
+   * Read-only list view of the corpus, which creates a copy of an article on every access, see {@link #get(int)}
+   * @return
+   */
+  public List<TaggedText> asList() {
+    return new TaggedTextList();
+  }
+
+  private class TaggedTextList extends AbstractList<TaggedText> implements RandomAccess {
+
+    @Override
+    public TaggedText get(int index) {
+      return StoredCorpus.this.get(index);
+    }
+
+    @Override
+    public int size() {
+      return StoredCorpus.this.size();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    store.close();
+  }
+}
@@ -0,0 +1,436 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javatools.datatypes.PeekIterator;
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+import tpt.dbweb.cat.datatypes.TextSpan;
+
+/**
+ * Compact binary encoding of tagged texts (file suffix .catbin), which can be read much faster than the XML format.
+ * The file starts with a header, which may record size and modification time of the XML file it was created from,
+ * followed by the articles and an end marker.
+ *
+ * Per article it stores id, info map, text as UTF-8, and the mentions. Start and end offsets of the mentions are stored as
+ * variable length integers, relative to the previous mention. Entities and the keys of the info maps are stored in string tables:
+ * a string is written the first time it occurs, afterwards only its number in the table.
+ * Mentions refer to the text of their article; the referring mention is not stored.
+ *
+ * @author Thomas Rebele
+ */
+public class TaggedTextSnapshot {
+
+  private static final int MAGIC = 0x43415442; // "CATB"
+
+  private static final int VERSION = 1;
+
+  private static final int ARTICLE = 1, END = 0;
+
+  public static Path sidecarPath(Path xml) {
+    return xml.resolveSibling(xml.getFileName() + ".catbin");
+  }
+
+  /**
+   * Write tagged texts to a file, without information about the source
+   */
+  public static void write(Path path, Iterable<TaggedText> tts) throws IOException {
+    try (Writer writer = new Writer(Files.newOutputStream(path), 0, 0, 0)) {
+      for (TaggedText tt : tts) {
+        writer.write(tt);
+      }
+    }
+  }
+
+  /**
+   * Read all tagged texts of a file
+   */
+  public static List<TaggedText> read(Path path) throws IOException {
+    List<TaggedText> result = new ArrayList<>();
+    try (Reader reader = new Reader(Files.newInputStream(path))) {
+      TaggedText tt;
+      while ((tt = reader.read()) != null) {
+        result.add(tt);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Read the tagged texts of a file lazily. The file is closed after the last article.
+   */
+  public static Iterator<TaggedText> iterate(Path path) throws IOException {
+    return iterate(new Reader(Files.newInputStream(path)));
+  }
+
+  static PeekIterator<TaggedText> iterate(Reader reader) {
+    return new PeekIterator<TaggedText>() {
+
+      @Override
+      protected TaggedText internalNext() throws Exception {
+        return reader.read();
+      }
+
+      @Override
+      public void close() {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    };
+  }
+
+  /**
+   * Writes the articles one by one. The end marker is written when the writer is closed.
+   */
+  public static class Writer implements Closeable {
+
+    private final OutputStream os;
+
+    private final byte[] buffer = new byte[1 << 16];
+
+    private int bufferPos = 0;
+
+    private final Map<String, Integer> entityTable = new HashMap<>(), keyTable = new HashMap<>();
+
+    /**
+     * @param os
+     * @param sourceSize size of the file from which the articles were read
+     * @param sourceLastModified modification time of that file in milliseconds
+     * @param sourceOptions options used for reading that file
+     * @throws IOException
+     */
+    public Writer(OutputStream os, long sourceSize, long sourceLastModified, int sourceOptions) throws IOException {
+      this.os = os;
+      writeInt(MAGIC);
+      writeInt(VERSION);
+      writeLong(sourceSize);
+      writeLong(sourceLastModified);
+      writeInt(sourceOptions);
+    }
+
+    public void write(TaggedText tt) throws IOException {
+      writeByte(ARTICLE);
+      writeString(tt.id);
+      writeInfo(tt.infoMap);
+      writeString(tt.text);
+
+      writeVarInt(tt.mentions.size());
+      int lastStart = 0;
+      for (EntityMention em : tt.mentions) {
+        writeVarInt(zigzag(em.start - lastStart));
+        writeVarInt(zigzag(em.end - em.start));
+        lastStart = em.start;
+        writeReference(entityTable, em.entity);
+        if (em.min == null) {
+          writeVarInt(0);
+        } else {
+          writeVarInt(1 + zigzag(em.min.start - em.start));
+          writeVarInt(zigzag(em.min.end - em.min.start));
+        }
+        writeInfo(em.infoMap);
+      }
+    }
+
+    private void writeInfo(Map<String, String> info) throws IOException {
+      if (info == null) {
+        writeVarInt(0);
+        return;
+      }
+      writeVarInt(info.size() + 1);
+      for (Entry<String, String> entry : info.entrySet()) {
+        writeReference(keyTable, entry.getKey());
+        writeString(entry.getValue());
+      }
+    }
+
+    /**
+     * Write the number of the string in the table (0 for null), or the next number followed by the string if it is not yet in the table
+     */
+    private void writeReference(Map<String, Integer> table, String str) throws IOException {
+      if (str == null) {
+        writeVarInt(0);
+        return;
+      }
+      Integer number = table.get(str);
+      if (number != null) {
+        writeVarInt(number);
+        return;
+      }
+      number = table.size() + 1;
+      table.put(str, number);
+      writeVarInt(number);
+      writeString(str);
+    }
+
+    /**
+     * Write length + 1 of the UTF-8 encoding (0 for null), followed by the bytes
+     */
+    private void writeString(String str) throws IOException {
+      if (str == null) {
+        writeVarInt(0);
+        return;
+      }
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(bytes.length + 1);
+      if (bytes.length > buffer.length - bufferPos) {
+        flushBuffer();
+        if (bytes.length > buffer.length) {
+          os.write(bytes);
+          return;
+        }
+      }
+      System.arraycopy(bytes, 0, buffer, bufferPos, bytes.length);
+      bufferPos += bytes.length;
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      if (buffer.length - bufferPos < 5) {
+        flushBuffer();
+      }
+      while ((value & ~0x7f) != 0) {
+        buffer[bufferPos++] = (byte) ((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      buffer[bufferPos++] = (byte) value;
+    }
+
+    private void writeInt(int value) throws IOException {
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        writeByte(value >>> shift);
+      }
+    }
+
+    private void writeLong(long value) throws IOException {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    private void writeByte(int value) throws IOException {
+      if (bufferPos == buffer.length) {
+        flushBuffer();
+      }
+      buffer[bufferPos++] = (byte) value;
+    }
+
+    private void flushBuffer() throws IOException {
+      os.write(buffer, 0, bufferPos);
+      bufferPos = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        writeByte(END);
+        flushBuffer();
+      } finally {
+        os.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the articles one by one
+   */
+  public static class Reader implements Closeable {
+
+    private final InputStream is;
+
+    private final byte[] buffer = new byte[1 << 16];
+
+    private int bufferPos = 0, bufferEnd = 0;
+
+    private final List<String> entityTable = new ArrayList<>(), keyTable = new ArrayList<>();
+
+    private final long sourceSize, sourceLastModified;
+
+    private final int sourceOptions;
+
+    private boolean finished = false;
+
+    /**
+     * Read the header
+     * @param is
+     * @throws IOException if the stream does not start with the header of this format
+     */
+    public Reader(InputStream is) throws IOException {
+      this.is = is;
+      try {
+        if (readInt() != MAGIC || readInt() != VERSION) {
+          throw new IOException("unknown format");
+        }
+        sourceSize = readLong();
+        sourceLastModified = readLong();
+        sourceOptions = readInt();
+      } catch (IOException e) {
+        is.close();
+        throw e;
+      }
+    }
+
+    /**
+     * @return true if the articles were read from a file with this size and modification time, using these options
+     */
+    public boolean isSnapshotOf(long size, long lastModified, int options) {
+      return sourceSize == size && sourceLastModified == lastModified && sourceOptions == options;
+    }
+
+    /**
+     * @return next article, or null after the last one
+     * @throws IOException also if the file ends without end marker
+     */
+    public TaggedText read() throws IOException {
+      if (finished) {
+        return null;
+      }
+      if (readByte() == END) {
+        finished = true;
+        return null;
+      }
+      TaggedText tt = new TaggedText();
+      tt.id = readString();
+      tt.infoMap = readInfo();
+      tt.text = readString();
+
+      int count = readVarInt();
+      tt.mentions = new ArrayList<>(count);
+      int lastStart = 0;
+      for (int i = 0; i < count; i++) {
+        int start = lastStart + unzigzag(readVarInt());
+        int end = start + unzigzag(readVarInt());
+        lastStart = start;
+        EntityMention em = new EntityMention(tt.text, start, end, readReference(entityTable));
+        em.internEntity();
+        int min = readVarInt();
+        if (min > 0) {
+          int minStart = start + unzigzag(min - 1);
+          em.min = new TextSpan(tt.text, minStart, minStart + unzigzag(readVarInt()));
+        }
+        em.infoMap = readInfo();
+        tt.mentions.add(em);
+      }
+      return tt;
+    }
+
+    private HashMap<String, String> readInfo() throws IOException {
+      int size = readVarInt() - 1;
+      if (size < 0) {
+        return null;
+      }
+      HashMap<String, String> info = new HashMap<>(Math.max(1, size * 4 / 3 + 1));
+      for (int i = 0; i < size; i++) {
+        String key = readReference(keyTable);
+        info.put(key, readString());
+      }
+      return info;
+    }
+
+    private String readReference(List<String> table) throws IOException {
+      int number = readVarInt();
+      if (number == 0) {
+        return null;
+      }
+      if (number <= table.size()) {
+        return table.get(number - 1);
+      }
+      if (number != table.size() + 1) {
+        throw new IOException("invalid string reference " + number);
+      }
+      String str = readString();
+      table.add(str);
+      return str;
+    }
+
+    private String readString() throws IOException {
+      int length = readVarInt() - 1;
+      if (length < 0) {
+        return null;
+      }
+      if (length <= bufferEnd - bufferPos) {
+        String str = new String(buffer, bufferPos, length, StandardCharsets.UTF_8);
+        bufferPos += length;
+        return str;
+      }
+      byte[] bytes = new byte[length];
+      int read = bufferEnd - bufferPos;
+      System.arraycopy(buffer, bufferPos, bytes, 0, read);
+      bufferPos = bufferEnd;
+      while (read < length) {
+        int n = is.read(bytes, read, length - read);
+        if (n < 0) {
+          throw new EOFException();
+        }
+        read += n;
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        int b = readByte();
+        value |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("invalid variable length integer");
+    }
+
+    private int readInt() throws IOException {
+      int value = 0;
+      for (int i = 0; i < 4; i++) {
+        value = (value << 8) | readByte();
+      }
+      return value;
+    }
+
+    private long readLong() throws IOException {
+      return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    private int readByte() throws IOException {
+      if (bufferPos == bufferEnd) {
+        bufferEnd = is.read(buffer);
+        bufferPos = 0;
+        if (bufferEnd <= 0) {
+          bufferEnd = 0;
+          throw new EOFException();
+        }
+      }
+      return buffer[bufferPos++] & 0xff;
+    }
+
+    @Override
+    public void close() throws IOException {
+      is.close();
+    }
+  }
+
+  private static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
@@ -4,20 +4,33 @@
 
 package tpt.dbweb.cat.io;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.stream.XMLInputFactory;
@@ -55,6 +68,20 @@ public class TaggedTextXMLReader implements TaggedTextReader {
 
     /** combine multiple newlines to a paragraph */
     public boolean combineMultipleNewlinesToParagraph = true;
+
+    /**
+     * read files with one XML stream reader, and normalize the whitespace while reading.
+     * The file needs to be well-formed XML, e.g. with the articles enclosed in &lt;articles&gt;...&lt;/articles&gt;.
+     * Entity and character references (e.g. &amp;amp;) are normalized like the character they stand for.
+     * Off by default, as files with several top-level &lt;article&gt; elements are not well-formed XML.
+     */
+    public boolean streaming = false;
+
+    /**
+     * store the articles of a file in a {@link TaggedTextSnapshot} next to it, and read them from there
+     * as long as size and modification time of the file are unchanged
+     */
+    public boolean snapshot = false;
   }
 
   private Options options = new Options();
@@ -174,11 +201,7 @@ public class TaggedTextXMLReader implements TaggedTextReader {
 
     XMLStreamReader tmpxsr = null;
     try {
-      XMLInputFactory xif = XMLInputFactory.newInstance();
-      xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
-      xif.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
-      xif.setProperty(XMLInputFactory.IS_VALIDATING, false);
-      tmpxsr = xif.createXMLStreamReader(is);
+      tmpxsr = createXMLStreamReader(is);
     } catch (XMLStreamException | FactoryConfigurationError e) {
       e.printStackTrace();
       return null;
@@ -238,44 +261,8 @@ public class TaggedTextXMLReader implements TaggedTextReader {
                   marks.add(tr);
 
                 } else if ("article".equals(xsr.getLocalName())) {
-                  tt.text = StringUtils.stripEnd(pureTextSB.toString().trim(), " \t\n");
+                  finishArticle(tt, pureTextSB, marks);
                   pureTextSB = new StringBuilder();
-
-                  tt.mentions = new ArrayList<>();
-                  for (TextSpan mark : marks) {
-
-                    String entity = mark.info().get("entity");
-                    if (entity == null) {
-                      entity = mark.info().get("annotation");
-                    }
-                    if (entity != null) {
-                      EntityMention e = new EntityMention(tt.text, mark.start, mark.end, entity);
-                      String minMention = mark.info().get("min");
-                      String mention = e.getMention();
-                      if (minMention != null && !"".equals(minMention)) {
-                        Pattern p = Pattern.compile(Pattern.quote(minMention));
-                        Matcher m = p.matcher(mention);
-                        if (m.find()) {
-                          TextSpan min = new TextSpan(e.text, e.start + m.start(), e.start + m.end());
-                          e.min = min;
-                          if (m.find()) {
-                            log.warn("found " + minMention + " two times in \"" + mention + "\"");
-                          }
-                        } else {
-                          String prefix = Utility.findLongestPrefix(mention, minMention);
-                          log.warn("didn't find min mention '" + minMention + "' in text '" + mention + "', longest prefix found: '" + prefix
-                              + "' in article " + tt.id);
-                        }
-                      }
-
-                      mark.info().remove("min");
-                      mark.info().remove("entity");
-                      if (mark.info().size() > 0) {
-                        e.info().putAll(mark.info());
-                      }
-                      tt.mentions.add(e);
-                    }
-                  }
                   openMarks.clear();
                   marks.clear();
                   break loop;
@@ -298,20 +285,397 @@ public class TaggedTextXMLReader implements TaggedTextReader {
           log.error("{}", errorMessageInfo);
           throw new RuntimeException(e);
         }
-        if (tt != null && tt.mentions != null) {
-          tt.mentions.sort(null);
-        }
         return tt;
       }
     };
   }
 
+  /**
+   * Set text and entity mentions of a tagged text when the end of an article is reached
+   * @param tt
+   * @param pureTextSB text of the article
+   * @param marks mark tags with positions relative to the text; the attributes are stored in the info map
+   */
+  private void finishArticle(TaggedText tt, StringBuilder pureTextSB, List<TextSpan> marks) {
+    tt.text = StringUtils.stripEnd(pureTextSB.toString().trim(), " \t\n");
+
+    tt.mentions = new ArrayList<>();
+    for (TextSpan mark : marks) {
+
+      String entity = mark.info().get("entity");
+      if (entity == null) {
+        entity = mark.info().get("annotation");
+      }
+      if (entity != null) {
+        EntityMention e = new EntityMention(tt.text, mark.start, mark.end, entity);
+        e.internEntity();
+        String minMention = mark.info().get("min");
+        String mention = e.getMention();
+        if (minMention != null && !"".equals(minMention)) {
+          Pattern p = Pattern.compile(Pattern.quote(minMention));
+          Matcher m = p.matcher(mention);
+          if (m.find()) {
+            TextSpan min = new TextSpan(e.text, e.start + m.start(), e.start + m.end());
+            e.min = min;
+            if (m.find()) {
+              log.warn("found " + minMention + " two times in \"" + mention + "\"");
+            }
+          } else {
+            String prefix = Utility.findLongestPrefix(mention, minMention);
+            log.warn("didn't find min mention '" + minMention + "' in text '" + mention + "', longest prefix found: '" + prefix + "' in article "
+                + tt.id);
+          }
+        }
+
+        mark.info().remove("min");
+        mark.info().remove("entity");
+        if (mark.info().size() > 0) {
+          e.info().putAll(mark.info());
+        }
+        tt.mentions.add(e);
+      }
+    }
+    tt.mentions.sort(null);
+  }
+
+  /**
+   * Parse a whole file with one XML stream reader. Whitespace gets normalized while the characters are read.
+   * Elements outside of &lt;article&gt; are skipped.
+   * @param is
+   * @param errorMessageInfo
+   * @return
+   */
+  private Iterator<TaggedText> getStreamingIterator(InputStream is, String errorMessageInfo) {
+    XMLStreamReader tmpxsr = null;
+    try {
+      tmpxsr = createXMLStreamReader(is);
+    } catch (XMLStreamException | FactoryConfigurationError e) {
+      e.printStackTrace();
+      return null;
+    }
+
+    final XMLStreamReader xsr = tmpxsr;
+    return new PeekIterator<TaggedText>() {
+
+      @Override
+      protected TaggedText internalNext() {
+        ArrayList<TextSpan> openMarks = new ArrayList<>();
+        StringBuilder pureTextSB = new StringBuilder();
+        ArrayList<TextSpan> marks = new ArrayList<>();
+        WhitespaceNormalizer normalizer = null;
+        TaggedText tt = null;
+
+        try {
+          while (xsr.hasNext()) {
+            int event = xsr.next();
+            if (tt == null) {
+              // search next article
+              if (event == XMLStreamConstants.START_ELEMENT && "article".equals(xsr.getLocalName())) {
+                tt = new TaggedText();
+                for (int i = 0; i < xsr.getAttributeCount(); i++) {
+                  String value = normalizeAttribute(xsr.getAttributeValue(i));
+                  if ("id".equals(xsr.getAttributeLocalName(i))) {
+                    tt.id = value;
+                  }
+                  tt.info().put(xsr.getAttributeLocalName(i), value);
+                }
+                normalizer = new WhitespaceNormalizer(options, pureTextSB, true);
+                normalizer.tag();
+              }
+              continue;
+            }
+
+            switch (event) {
+              case XMLStreamConstants.START_ELEMENT:
+                normalizer.tag();
+                if ("mark".equals(xsr.getLocalName())) {
+                  TextSpan tr = new TextSpan(null, pureTextSB.length(), pureTextSB.length());
+                  for (int i = 0; i < xsr.getAttributeCount(); i++) {
+                    tr.info().put(xsr.getAttributeLocalName(i), normalizeAttribute(xsr.getAttributeValue(i)));
+                  }
+                  openMarks.add(tr);
+                } else if ("br".equals(xsr.getLocalName())) {
+                  // TODO: how to propagate tags from the input to the output?
+                } else {
+                  log.warn("ignore tag " + xsr.getLocalName());
+                }
+                break;
+              case XMLStreamConstants.END_ELEMENT:
+                normalizer.tag();
+                if ("mark".equals(xsr.getLocalName())) {
+                  if (openMarks.isEmpty()) {
+                    log.warn("markend at " + xsr.getLocation().getCharacterOffset() + " has no corresponding mark tag");
+                    break;
+                  }
+                  TextSpan tr = openMarks.remove(openMarks.size() - 1);
+                  tr.end = pureTextSB.length();
+                  marks.add(tr);
+                } else if ("article".equals(xsr.getLocalName())) {
+                  normalizer.flush();
+                  finishArticle(tt, pureTextSB, marks);
+                  return tt;
+                }
+                break;
+              case XMLStreamConstants.CHARACTERS:
+                normalizer.append(xsr.getTextCharacters(), xsr.getTextStart(), xsr.getTextLength());
+                break;
+            }
+          }
+          xsr.close();
+        } catch (XMLStreamException e) {
+          log.error("{}", errorMessageInfo);
+          throw new RuntimeException(e);
+        }
+        if (tt != null) {
+          log.warn("article {} not closed in {}", tt.id, errorMessageInfo);
+        }
+        return null;
+      }
+    };
+  }
+
+  private String normalizeAttribute(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (Character.isWhitespace(c) && (c != ' ' || (i + 1 < value.length() && Character.isWhitespace(value.charAt(i + 1))))) {
+        return WhitespaceNormalizer.normalize(options, value);
+      }
+    }
+    return value;
+  }
+
+  private static final ThreadLocal<XMLInputFactory> inputFactory = ThreadLocal.withInitial(() -> {
+    XMLInputFactory xif = XMLInputFactory.newInstance();
+    xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    xif.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+    xif.setProperty(XMLInputFactory.IS_VALIDATING, false);
+    return xif;
+  });
+
+  private static XMLStreamReader createXMLStreamReader(InputStream is) throws XMLStreamException {
+    return inputFactory.get().createXMLStreamReader(is);
+  }
+
   public Iterator<TaggedText> iteratePath(Path path) throws FileNotFoundException {
+    if (options.snapshot) {
+      return iterateWithSnapshot(path);
+    }
+    return iterateXML(path);
+  }
+
+  private Iterator<TaggedText> iterateXML(Path path) throws FileNotFoundException {
     InputStream is = null;
     is = new FileInputStream(path.toFile());
+    if (options.streaming) {
+      return getStreamingIterator(new BufferedInputStream(is, 1 << 16), path.toString());
+    }
     return getNormalizedIterator(is, path.toString());
   }
 
+  /**
+   * Read the articles from the snapshot of the file if it is up to date. Otherwise parse the file, and write the snapshot
+   * while the articles are iterated. The snapshot is only kept if all articles have been iterated.
+   * @param path
+   * @return
+   * @throws FileNotFoundException
+   */
+  private Iterator<TaggedText> iterateWithSnapshot(Path path) throws FileNotFoundException {
+    Path sidecar = TaggedTextSnapshot.sidecarPath(path);
+    long fileSize, lastModified;
+    try {
+      fileSize = Files.size(path);
+      lastModified = Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      return iterateXML(path);
+    }
+    int fingerprint = optionsFingerprint();
+
+    if (Files.exists(sidecar)) {
+      try {
+        TaggedTextSnapshot.Reader reader = new TaggedTextSnapshot.Reader(new BufferedInputStream(Files.newInputStream(sidecar), 1 << 16));
+        if (reader.isSnapshotOf(fileSize, lastModified, fingerprint)) {
+          return TaggedTextSnapshot.iterate(reader);
+        }
+        reader.close();
+        log.info("snapshot {} is outdated", sidecar);
+      } catch (IOException e) {
+        log.warn("cannot read snapshot {}: {}", sidecar, e.getMessage());
+      }
+    }
+
+    Iterator<TaggedText> it = iterateXML(path);
+    Path tmp;
+    TaggedTextSnapshot.Writer writer;
+    try {
+      tmp = Files.createTempFile(sidecar.toAbsolutePath().getParent(), sidecar.getFileName().toString(), ".tmp");
+      writer = new TaggedTextSnapshot.Writer(Files.newOutputStream(tmp), fileSize, lastModified, fingerprint);
+    } catch (IOException e) {
+      log.warn("cannot write snapshot {}: {}", sidecar, e.getMessage());
+      return it;
+    }
+    return new PeekIterator<TaggedText>() {
+
+      TaggedTextSnapshot.Writer w = writer;
+
+      boolean complete = false;
+
+      @Override
+      protected TaggedText internalNext() throws Exception {
+        if (!it.hasNext()) {
+          complete = true;
+          return null;
+        }
+        TaggedText tt = it.next();
+        if (w != null) {
+          try {
+            w.write(tt);
+          } catch (IOException e) {
+            log.warn("cannot write snapshot {}: {}", sidecar, e.getMessage());
+            close();
+          }
+        }
+        return tt;
+      }
+
+      @Override
+      public void close() {
+        if (w == null) {
+          return;
+        }
+        try {
+          w.close();
+          w = null;
+          if (complete) {
+            // temporary files are only readable by the owner; give the snapshot the permissions of the XML file
+            try {
+              Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(path));
+            } catch (UnsupportedOperationException e) {
+            }
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          } else {
+            Files.delete(tmp);
+          }
+        } catch (IOException e) {
+          log.warn("cannot write snapshot {}: {}", sidecar, e.getMessage());
+          w = null;
+          try {
+            Files.deleteIfExists(tmp);
+          } catch (IOException e2) {
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * @return number which changes if the options change the articles
+   */
+  private int optionsFingerprint() {
+    int result = 0;
+    result = 2 * result + (options.normalizeWhitespace ? 1 : 0);
+    result = 2 * result + (options.trimLines ? 1 : 0);
+    result = 2 * result + (options.stripSingleNewlineCharacters ? 1 : 0);
+    result = 2 * result + (options.combineMultipleNewlinesToParagraph ? 1 : 0);
+    result = 2 * result + (options.streaming ? 1 : 0);
+    return result;
+  }
+
+  /**
+   * Parse all articles of a file concurrently, using the {@link ArticleIndex} of the file
+   * @param path
+   * @return
+   * @throws IOException
+   */
+  public List<TaggedText> getTaggedTextParallel(Path path) throws IOException {
+    ArticleIndex index = ArticleIndex.load(path);
+    return getTaggedText(path, index, 0, index.size());
+  }
+
+  /**
+   * Parse a single article, without reading the articles before it
+   * @param path
+   * @param id
+   * @return article, or null if the file contains no article with the id
+   * @throws IOException
+   */
+  public TaggedText getTaggedTextById(Path path, String id) throws IOException {
+    ArticleIndex index = ArticleIndex.load(path);
+    int article = index.indexOf(id);
+    if (article < 0) {
+      return null;
+    }
+    List<TaggedText> result = getTaggedText(path, index, article, article + 1);
+    return result.isEmpty() ? null : result.get(0);
+  }
+
+  /**
+   * Parse the articles from (inclusive) to (exclusive) concurrently. The file is memory-mapped, every article gets its own XML stream reader.
+   * @param path
+   * @param index index of the file
+   * @param from
+   * @param to
+   * @return articles in the order of the file
+   * @throws IOException
+   */
+  public List<TaggedText> getTaggedText(Path path, ArticleIndex index, int from, int to) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // map the whole file if possible, otherwise every article separately
+      MappedByteBuffer file = channel.size() <= Integer.MAX_VALUE ? channel.map(MapMode.READ_ONLY, 0, channel.size()) : null;
+      return IntStream.range(from, to).parallel().mapToObj(i -> {
+        ByteBuffer bb;
+        try {
+          if (file != null) {
+            bb = file.duplicate();
+            bb.position((int) index.getOffset(i));
+            bb.limit((int) index.getOffset(i) + index.getLength(i));
+          } else {
+            bb = channel.map(MapMode.READ_ONLY, index.getOffset(i), index.getLength(i));
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        Iterator<TaggedText> it = getStreamingIterator(new ByteBufferInputStream(bb), path + ", article " + index.getId(i));
+        if (it == null || !it.hasNext()) {
+          log.warn("no article at byte {} of {}", index.getOffset(i), path);
+          return null;
+        }
+        return it.next();
+      }).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer bb;
+
+    ByteBufferInputStream(ByteBuffer bb) {
+      this.bb = bb;
+    }
+
+    @Override
+    public int read() {
+      return bb.hasRemaining() ? bb.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!bb.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, bb.remaining());
+      bb.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public int available() {
+      return bb.remaining();
+    }
+  }
+
   public static void main(String... args) {
     String file = "result/ace2004/roth-dev/dev//tagged-by-pronoun.xml";
     for (TaggedText tt : new TaggedTextXMLReader().getTaggedTextFromFile(file)) {
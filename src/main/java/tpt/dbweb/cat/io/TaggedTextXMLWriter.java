@@ -12,19 +12,18 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.apache.commons.collections4.IteratorUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import tpt.dbweb.cat.datatypes.EntityMention;
 import tpt.dbweb.cat.datatypes.TaggedText;
-import tpt.dbweb.cat.datatypes.iterators.EntityMentionPos;
-import tpt.dbweb.cat.datatypes.iterators.EntityMentionPosIterator;
 import tpt.dbweb.cat.datatypes.iterators.EntityMentionPosIterator.PosType;
+import tpt.dbweb.cat.datatypes.iterators.MentionBoundaries;
 
 public class TaggedTextXMLWriter implements Closeable {
 
@@ -100,30 +99,43 @@ public class TaggedTextXMLWriter implements Closeable {
     ps.println("  </article>");
   }
 
-  private static String escape(String str) {
-    String result = StringEscapeUtils.escapeXml10(str);
+  private static String escape(CharSequence str) {
+    String result = StringEscapeUtils.ESCAPE_XML10.translate(str);
     return result;
   }
 
   public static String toMarkedText(TaggedText tt) {
-    if (tt.mentions != null) {
-      tt.mentions.sort(null);
+    return toMarkedText(tt.text, tt.mentions);
+  }
+
+  /**
+   * Text with &lt;mark&gt; tags for the mentions
+   * @param text
+   * @param mentions are sorted; their offsets refer to text
+   * @return
+   */
+  public static String toMarkedText(CharSequence text, List<EntityMention> mentions) {
+    if (mentions != null) {
+      mentions.sort(null);
     }
 
     StringBuilder sb = new StringBuilder();
     int last = 0;
-    if (tt.mentions != null) {
-      for (EntityMentionPos emp : IteratorUtils.asIterable(new EntityMentionPosIterator(tt.mentions))) {
+    if (mentions != null) {
+      MentionBoundaries boundaries = new MentionBoundaries(mentions);
+      while (boundaries.advance()) {
+        int pos = boundaries.pos();
+        EntityMention em = mentions.get(boundaries.row());
         // print text before entity mention position
-        if (emp.pos < last || emp.pos > tt.text.length()) {
-          log.warn("entity mention out of range: {}, {}", emp.pos, emp.posType.toString());
+        if (pos < last || pos > text.length()) {
+          log.warn("entity mention out of range: {}, {}", pos, boundaries.posType().toString());
           continue;
         }
-        sb.append(escape(tt.text.substring(last, emp.pos)));
+        sb.append(escape(text.subSequence(last, pos)));
 
         // print start tag
-        if (emp.posType == PosType.START) {
-          String entity = emp.em.entity;
+        if (boundaries.posType() == PosType.START) {
+          String entity = em.entity;
           if (entity.startsWith("<") && entity.endsWith(">")) {
             entity = entity.substring(1, entity.length() - 1);
           }
@@ -132,13 +144,13 @@ public class TaggedTextXMLWriter implements Closeable {
           sb.append(escape(entity));
           sb.append("'");
           // print min mention
-          if (emp.em.min != null) {
+          if (em.min != null) {
             sb.append(" min='");
-            sb.append(escape(emp.em.min.spanString()));
+            sb.append(escape(em.min.text != null ? em.min.spanString() : text.subSequence(em.min.start, em.min.end)));
             sb.append("'");
           }
           // print attributes
-          for (Entry<String, String> attr : emp.em.info().entrySet()) {
+          for (Entry<String, String> attr : em.info().entrySet()) {
             sb.append(" ");
             sb.append(attr.getKey());
             sb.append("='");
@@ -149,15 +161,15 @@ public class TaggedTextXMLWriter implements Closeable {
         }
 
         // print end tag
-        if (emp.posType == PosType.END) {
+        if (boundaries.posType() == PosType.END) {
           sb.append("</mark>");
         }
 
-        last = emp.pos;
+        last = pos;
       }
     }
-    if (tt.text != null) {
-      sb.append(escape(tt.text.substring(last)));
+    if (text != null) {
+      sb.append(escape(text.subSequence(last, text.length())));
     }
     return sb.toString();
   }
@@ -0,0 +1,224 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.io;
+
+/**
+ * Streaming version of the whitespace normalization of {@link TaggedTextXMLReader}.
+ * It gives the same result as the regular expressions of TaggedTextXMLReader.normalize applied to the raw XML of an article,
+ * but works on the characters reported by the XML parser. Every regular expression is a stage that sees one character at a time.
+ * Tags are passed with {@link #tag()}, as they separate whitespace like any other character.
+ *
+ * @author Thomas Rebele
+ */
+class WhitespaceNormalizer {
+
+  /** placeholder for the characters of a tag; not allowed in XML text */
+  private static final char TAG = '\uFFFF';
+
+  private final TaggedTextXMLReader.Options options;
+
+  private final StringBuilder out;
+
+  private final boolean stripStart;
+
+  // stage 1, trim lines: "[ \t\x0B\f\r]*\n[ \t\x0B\f\r]*" -> "\n"
+  private final StringBuilder trimPending = new StringBuilder();
+
+  private boolean trimAfterNewline = false;
+
+  // stage 2, strip single newlines: "([^\n])\n([^\n])" -> "$1 $2"; holds a character that might start a match, and a newline
+  private char stripChar = 0;
+
+  private boolean hasStripChar = false, stripNewline = false;
+
+  // stage 3, combine newlines: "\n\n+" -> "\n\n"
+  private int newlines = 0;
+
+  // stage 4, normalize whitespace: "[ \t\x0B\f\r]+" -> " "
+  private boolean whitespacePending = false;
+
+  /**
+   * @param options which normalizations to apply
+   * @param out receives the normalized text
+   * @param stripStart do not append whitespace to an empty output
+   */
+  WhitespaceNormalizer(TaggedTextXMLReader.Options options, StringBuilder out, boolean stripStart) {
+    this.options = options;
+    this.out = out;
+    this.stripStart = stripStart;
+  }
+
+  /**
+   * Normalize a string on its own, e.g. an attribute value, as if it was surrounded by tags
+   */
+  static String normalize(TaggedTextXMLReader.Options options, String str) {
+    StringBuilder sb = new StringBuilder(str.length());
+    WhitespaceNormalizer n = new WhitespaceNormalizer(options, sb, false);
+    n.tag();
+    n.append(str);
+    n.tag();
+    n.flush();
+    return sb.toString();
+  }
+
+  private static boolean isHorizontalWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  void append(CharSequence cs) {
+    for (int i = 0; i < cs.length(); i++) {
+      trimLines(cs.charAt(i));
+    }
+  }
+
+  void append(char[] chars, int start, int length) {
+    for (int i = start; i < start + length; i++) {
+      trimLines(chars[i]);
+    }
+  }
+
+  /**
+   * Start or end tag. Afterwards the output contains all text before the tag.
+   */
+  void tag() {
+    // a tag consists of at least two characters ('<' and '>'), which matters for stage 2
+    trimLines(TAG);
+    trimLines(TAG);
+  }
+
+  /**
+   * Output all pending characters
+   */
+  void flush() {
+    if (trimPending.length() > 0) {
+      for (int i = 0; i < trimPending.length(); i++) {
+        stripSingleNewlines(trimPending.charAt(i));
+      }
+      trimPending.setLength(0);
+    }
+    if (hasStripChar) {
+      combineNewlines(stripChar);
+      hasStripChar = false;
+    }
+    if (stripNewline) {
+      combineNewlines('\n');
+      stripNewline = false;
+    }
+    if (newlines > 0) {
+      emitNewlines();
+    }
+    if (whitespacePending) {
+      sink(' ');
+      whitespacePending = false;
+    }
+  }
+
+  private void trimLines(char c) {
+    if (!options.trimLines) {
+      stripSingleNewlines(c);
+      return;
+    }
+    if (isHorizontalWhitespace(c)) {
+      if (!trimAfterNewline) {
+        trimPending.append(c);
+      }
+    } else if (c == '\n') {
+      trimPending.setLength(0);
+      trimAfterNewline = true;
+      stripSingleNewlines(c);
+    } else {
+      trimAfterNewline = false;
+      for (int i = 0; i < trimPending.length(); i++) {
+        stripSingleNewlines(trimPending.charAt(i));
+      }
+      trimPending.setLength(0);
+      stripSingleNewlines(c);
+    }
+  }
+
+  private void stripSingleNewlines(char c) {
+    if (!options.stripSingleNewlineCharacters) {
+      combineNewlines(c);
+      return;
+    }
+    if (!hasStripChar) {
+      if (c == '\n') {
+        combineNewlines(c);
+      } else {
+        stripChar = c;
+        hasStripChar = true;
+      }
+    } else if (!stripNewline) {
+      if (c == '\n') {
+        stripNewline = true;
+      } else {
+        combineNewlines(stripChar);
+        stripChar = c;
+      }
+    } else {
+      combineNewlines(stripChar);
+      hasStripChar = false;
+      stripNewline = false;
+      if (c == '\n') {
+        combineNewlines('\n');
+        combineNewlines('\n');
+      } else {
+        // match; c is consumed and cannot start the next match
+        combineNewlines(' ');
+        combineNewlines(c);
+      }
+    }
+  }
+
+  private void combineNewlines(char c) {
+    if (!options.combineMultipleNewlinesToParagraph) {
+      normalizeWhitespace(c);
+      return;
+    }
+    if (c == '\n') {
+      newlines++;
+    } else {
+      if (newlines > 0) {
+        emitNewlines();
+      }
+      normalizeWhitespace(c);
+    }
+  }
+
+  private void emitNewlines() {
+    normalizeWhitespace('\n');
+    if (newlines > 1) {
+      normalizeWhitespace('\n');
+    }
+    newlines = 0;
+  }
+
+  private void normalizeWhitespace(char c) {
+    if (!options.normalizeWhitespace) {
+      sink(c);
+      return;
+    }
+    if (isHorizontalWhitespace(c)) {
+      whitespacePending = true;
+    } else {
+      if (whitespacePending) {
+        sink(' ');
+        whitespacePending = false;
+      }
+      sink(c);
+    }
+  }
+
+  private void sink(char c) {
+    if (c == TAG) {
+      return;
+    }
+    if (stripStart && out.length() == 0 && (c == ' ' || c == '\t' || c == '\n')) {
+      return;
+    }
+    out.append(c);
+  }
+
+}
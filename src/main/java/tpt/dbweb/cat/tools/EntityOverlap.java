@@ -0,0 +1,113 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+import tpt.dbweb.cat.datatypes.iterators.CompareSweep;
+
+/**
+ * Overlap of the entities of the gold standard (annotator 0) with the entities of every other annotator,
+ * i.e. the number of compared text slices where both annotators have a mention of the respective entity.
+ * The matrices are sparse and keyed by entity ids of the global {@link tpt.dbweb.cat.datatypes.EntityDictionary}.
+ *
+ * All matrices are calculated in one sweep over the mentions of all annotators.
+ * The counts are the same as with a separate sweep over the gold standard and each annotator.
+ *
+ * @author Thomas Rebele
+ */
+public class EntityOverlap {
+
+  /** per annotator: (entity id of the gold standard &lt;&lt; 32 | entity id of the annotator) to count; null for the gold standard */
+  private final List<Map<Long, int[]>> pairToCount = new ArrayList<>();
+
+  /**
+   * @param text text of the gold standard; null if unknown
+   * @param mentions mentions of every annotator, the first one is the gold standard; the lists are sorted in place
+   */
+  public EntityOverlap(String text, List<List<EntityMention>> mentions) {
+    CompareSweep sweep = new CompareSweep(text == null ? Integer.MAX_VALUE : text.length());
+    pairToCount.add(null);
+    sweep.add(mentions.get(0));
+    for (int i = 1; i < mentions.size(); i++) {
+      pairToCount.add(new HashMap<>());
+      sweep.add(mentions.get(i));
+    }
+
+    CompareSweep.Cursor cursor = sweep.cursor();
+    while (sweep.advance()) {
+      int row0 = cursor.principalRow(0);
+      EntityMention em0 = row0 < 0 ? null : mentions.get(0).get(row0);
+      if (em0 == null || em0.entity == null) {
+        continue;
+      }
+      for (int i = 1; i < mentions.size(); i++) {
+        // only count slices that a sweep over annotator 0 and i alone would have
+        if (!cursor.startsAtBoundary(0) && !cursor.startsAtBoundary(i)) {
+          continue;
+        }
+        int rowI = cursor.principalRow(i);
+        EntityMention emI = rowI < 0 ? null : mentions.get(i).get(rowI);
+        if (emI != null && emI.entity != null) {
+          pairToCount.get(i).computeIfAbsent(key(em0.getEntityId(), emI.getEntityId()), k -> new int[1])[0]++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Overlap of the mentions of tt0 (gold standard) and tt1
+   */
+  public EntityOverlap(TaggedText tt0, TaggedText tt1) {
+    this(tt0.text, twoLists(tt0.mentions, tt1.mentions));
+  }
+
+  private static List<List<EntityMention>> twoLists(List<EntityMention> mentions0, List<EntityMention> mentions1) {
+    List<List<EntityMention>> result = new ArrayList<>();
+    result.add(mentions0);
+    result.add(mentions1);
+    return result;
+  }
+
+  public static long key(int goldEntityId, int entityId) {
+    return ((long) goldEntityId << 32) | (entityId & 0xFFFFFFFFL);
+  }
+
+  public static int goldEntityId(long key) {
+    return (int) (key >> 32);
+  }
+
+  public static int entityId(long key) {
+    return (int) key;
+  }
+
+  /**
+   * @return number of annotators, including the gold standard
+   */
+  public int size() {
+    return pairToCount.size();
+  }
+
+  /**
+   * @param annotator index of the annotator, at least 1
+   * @return map from {@link #key(int, int)} to count; the arrays have length one
+   */
+  public Map<Long, int[]> getPairCounts(int annotator) {
+    return pairToCount.get(annotator);
+  }
+
+  /**
+   * @return number of slices in which the gold standard has a mention of the first entity, and the annotator of the second
+   */
+  public int getCount(int annotator, int goldEntityId, int entityId) {
+    int[] count = pairToCount.get(annotator).get(key(goldEntityId, entityId));
+    return count == null ? 0 : count[0];
+  }
+}
@@ -0,0 +1,196 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.tools;
+
+import java.util.Arrays;
+
+/**
+ * Kuhn-Munkres algorithm (also known as Hungarian algorithm) for finding a one-to-one assignment of rows to columns with maximum weight.
+ * Used for CEAF and for aligning mention chains.
+ *
+ * @author Thomas Rebele
+ */
+public class KuhnMunkres {
+
+  /**
+   * Calculate an assignment with maximum total weight for a dense weight matrix.
+   * @param weights matrix of size rows x columns, weights should be non-negative
+   * @return for each row the assigned column, or -1 if it is not assigned
+   */
+  public static int[] solve(double[][] weights) {
+    int rows = weights.length;
+    int cols = rows == 0 ? 0 : weights[0].length;
+    int[] result = new int[rows];
+    Arrays.fill(result, -1);
+    if (rows == 0 || cols == 0) {
+      return result;
+    }
+
+    // the algorithm needs rows <= cols, so transpose if necessary
+    boolean transpose = rows > cols;
+    int n = transpose ? cols : rows, m = transpose ? rows : cols;
+
+    // minimize negated weights; arrays are 1-based, index 0 is a virtual row/column
+    double[] u = new double[n + 1], v = new double[m + 1];
+    int[] p = new int[m + 1], way = new int[m + 1];
+    for (int i = 1; i <= n; i++) {
+      p[0] = i;
+      int j0 = 0;
+      double[] minv = new double[m + 1];
+      Arrays.fill(minv, Double.POSITIVE_INFINITY);
+      boolean[] used = new boolean[m + 1];
+      do {
+        used[j0] = true;
+        int i0 = p[j0], j1 = 0;
+        double delta = Double.POSITIVE_INFINITY;
+        for (int j = 1; j <= m; j++) {
+          if (!used[j]) {
+            double w = transpose ? weights[j - 1][i0 - 1] : weights[i0 - 1][j - 1];
+            double cur = -w - u[i0] - v[j];
+            if (cur < minv[j]) {
+              minv[j] = cur;
+              way[j] = j0;
+            }
+            if (minv[j] < delta) {
+              delta = minv[j];
+              j1 = j;
+            }
+          }
+        }
+        for (int j = 0; j <= m; j++) {
+          if (used[j]) {
+            u[p[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minv[j] -= delta;
+          }
+        }
+        j0 = j1;
+      } while (p[j0] != 0);
+      do {
+        int j1 = way[j0];
+        p[j0] = p[j1];
+        j0 = j1;
+      } while (j0 != 0);
+    }
+
+    // p[j] is the row assigned to column j
+    for (int j = 1; j <= m; j++) {
+      if (p[j] == 0) {
+        continue;
+      }
+      int row = transpose ? j - 1 : p[j] - 1;
+      int col = transpose ? p[j] - 1 : j - 1;
+      // an assignment with weight 0 is no real assignment
+      if (weights[row][col] > 0) {
+        result[row] = col;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Calculate an assignment with maximum total weight for a sparse weight matrix.
+   * The matrix is split into connected components (rows and columns connected by an edge with positive weight), which are solved independently.
+   * @param rows number of rows
+   * @param cols number of columns
+   * @param edgeRow row of each edge
+   * @param edgeCol column of each edge
+   * @param edgeWeight weight of each edge
+   * @param edgeCount number of valid entries in the edge arrays
+   * @return for each row the assigned column, or -1 if it is not assigned
+   */
+  public static int[] solveSparse(int rows, int cols, int[] edgeRow, int[] edgeCol, double[] edgeWeight, int edgeCount) {
+    int[] result = new int[rows];
+    Arrays.fill(result, -1);
+
+    // union find over rows (0..rows-1) and columns (rows..rows+cols-1)
+    int[] parent = new int[rows + cols];
+    for (int i = 0; i < parent.length; i++) {
+      parent[i] = i;
+    }
+    for (int e = 0; e < edgeCount; e++) {
+      if (edgeWeight[e] > 0) {
+        int a = find(parent, edgeRow[e]), b = find(parent, rows + edgeCol[e]);
+        if (a != b) {
+          parent[a] = b;
+        }
+      }
+    }
+
+    // number rows and columns within their component
+    int[] component = new int[rows + cols];
+    int[] localIdx = new int[rows + cols];
+    int[] componentRows = new int[rows + cols], componentCols = new int[rows + cols];
+    int[] rootToComponent = new int[rows + cols];
+    Arrays.fill(rootToComponent, -1);
+    int components = 0;
+    for (int i = 0; i < rows + cols; i++) {
+      int root = find(parent, i);
+      if (rootToComponent[root] < 0) {
+        rootToComponent[root] = components++;
+      }
+      int c = rootToComponent[root];
+      component[i] = c;
+      localIdx[i] = i < rows ? componentRows[c]++ : componentCols[c]++;
+    }
+
+    // fill component matrices; skip trivial components without any edge
+    double[][][] matrices = new double[components][][];
+    int[][] rowOfLocal = new int[components][];
+    for (int e = 0; e < edgeCount; e++) {
+      if (edgeWeight[e] <= 0) {
+        continue;
+      }
+      int r = edgeRow[e], c = rows + edgeCol[e];
+      int comp = component[r];
+      if (matrices[comp] == null) {
+        matrices[comp] = new double[componentRows[comp]][componentCols[comp]];
+        rowOfLocal[comp] = new int[componentRows[comp]];
+      }
+      matrices[comp][localIdx[r]][localIdx[c]] += edgeWeight[e];
+    }
+    for (int r = 0; r < rows; r++) {
+      int comp = component[r];
+      if (rowOfLocal[comp] != null) {
+        rowOfLocal[comp][localIdx[r]] = r;
+      }
+    }
+    int[][] colOfLocal = new int[components][];
+    for (int c = 0; c < cols; c++) {
+      int comp = component[rows + c];
+      if (matrices[comp] != null) {
+        if (colOfLocal[comp] == null) {
+          colOfLocal[comp] = new int[componentCols[comp]];
+        }
+        colOfLocal[comp][localIdx[rows + c]] = c;
+      }
+    }
+
+    // solve each component; components with one edge only are trivial
+    for (int comp = 0; comp < components; comp++) {
+      double[][] matrix = matrices[comp];
+      if (matrix == null) {
+        continue;
+      }
+      int[] local = matrix.length == 1 && matrix[0].length == 1 ? new int[] { 0 } : solve(matrix);
+      for (int i = 0; i < local.length; i++) {
+        if (local[i] >= 0) {
+          result[rowOfLocal[comp][i]] = colOfLocal[comp][local[i]];
+        }
+      }
+    }
+    return result;
+  }
+
+  private static int find(int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+}
@@ -6,7 +6,9 @@ package tpt.dbweb.cat.tools;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
@@ -16,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javatools.datatypes.PeekIterator;
+import tpt.dbweb.cat.datatypes.EntityDictionary;
 import tpt.dbweb.cat.datatypes.EntityMention;
 import tpt.dbweb.cat.datatypes.TaggedText;
 import tpt.dbweb.cat.datatypes.iterators.CompareIterator;
@@ -31,6 +34,13 @@ public class MentionChainAligner {
 
   private final static Logger log = LoggerFactory.getLogger(MentionChainAligner.class);
 
+  public enum Alignment {
+    /** map every entity to the entity with the most mentions in common; several entities can be mapped to the same one */
+    GREEDY,
+    /** one-to-one mapping with the most mentions in common overall */
+    OPTIMAL
+  };
+
   public Map<String, String> guessEntityMapFirst(TaggedText tt0, TaggedText tt1) {
     Map<String, String> result = new HashMap<>();
 
@@ -55,66 +65,156 @@ public class MentionChainAligner {
    * @return
    */
   public Map<String, String> guessEntityMapGreedy(TaggedText tt0, TaggedText tt1) {
-    // map from tt0 entity to (map of tt1 entity to count)
-    Map<String, Map<String, Integer>> possibilitiesCount = getEntityMapPosibilitiesCount(tt0, tt1);
-
-    // transform to map from count to (map of tt0 entty to tt1 entity)
-    TreeMap<Integer, Map<String, String>> reverse = new TreeMap<>();
-    for (Entry<String, Map<String, Integer>> e : possibilitiesCount.entrySet()) {
-      for (Entry<String, Integer> e2 : e.getValue().entrySet()) {
-        reverse.compute(e2.getValue(), (key, map) -> {
-          if (map == null) {
-            map = new HashMap<>();
-          }
-          map.put(e.getKey(), e2.getKey());
-          return map;
-        });
+    EntityDictionary dict = EntityDictionary.getGlobal();
+    Map<String, String> result = new HashMap<>();
+    guessEntityIdMapGreedy(tt0, tt1).forEach((e0, e1) -> result.put(dict.getEntity(e0), dict.getEntity(e1)));
+    return result;
+  }
+
+  /**
+   * Like {@link #guessEntityMapGreedy(TaggedText, TaggedText)}, but with the entity ids of the global {@link EntityDictionary}.
+   * Every entity of tt0 is mapped to the entity of tt1 with which it has the most mentions in common.
+   * @param tt0
+   * @param tt1
+   * @return
+   */
+  public Map<Integer, Integer> guessEntityIdMapGreedy(TaggedText tt0, TaggedText tt1) {
+    return greedy(getEntityIdPairCount(tt0, tt1));
+  }
+
+  /**
+   * Calculate a one-to-one mapping from the entities of tt0 to those of tt1, which maximizes the number of mentions in common (Kuhn-Munkres).
+   * Unlike {@link #guessEntityMapGreedy(TaggedText, TaggedText)}, two entities of tt0 are never mapped to the same entity of tt1.
+   * @param tt0
+   * @param tt1
+   * @return
+   */
+  public Map<String, String> guessEntityMapOptimal(TaggedText tt0, TaggedText tt1) {
+    EntityDictionary dict = EntityDictionary.getGlobal();
+    Map<String, String> result = new HashMap<>();
+    guessEntityIdMapOptimal(tt0, tt1).forEach((e0, e1) -> result.put(dict.getEntity(e0), dict.getEntity(e1)));
+    return result;
+  }
+
+  /**
+   * Like {@link #guessEntityMapOptimal(TaggedText, TaggedText)}, but with the entity ids of the global {@link EntityDictionary}.
+   * @param tt0
+   * @param tt1
+   * @return
+   */
+  public Map<Integer, Integer> guessEntityIdMapOptimal(TaggedText tt0, TaggedText tt1) {
+    return optimal(getEntityIdPairCount(tt0, tt1));
+  }
+
+  /**
+   * Map entities of tt0 to entities of tt1, see {@link Alignment}
+   * @return mapping of entity ids of the global {@link EntityDictionary}
+   */
+  public Map<Integer, Integer> guessEntityIdMap(TaggedText tt0, TaggedText tt1, Alignment alignment) {
+    return guessEntityIdMap(new EntityOverlap(tt0, tt1), 1, alignment);
+  }
+
+  /**
+   * Map entities of the gold standard to entities of an annotator, based on overlap counts that were already calculated.
+   * Use this to align several annotators with one sweep over the mentions.
+   * @param overlap
+   * @param annotator index of the annotator in the overlap, at least 1
+   * @param alignment
+   * @return mapping of entity ids of the global {@link EntityDictionary}
+   */
+  public Map<Integer, Integer> guessEntityIdMap(EntityOverlap overlap, int annotator, Alignment alignment) {
+    Map<Long, int[]> pairToCount = overlap.getPairCounts(annotator);
+    return alignment == Alignment.OPTIMAL ? optimal(pairToCount) : greedy(pairToCount);
+  }
+
+  /**
+   * One-to-one mapping with the highest total count
+   */
+  private Map<Integer, Integer> optimal(Map<Long, int[]> pairToCount) {
+    // fast path: if the best entities of tt1 are all different, no other mapping can have more mentions in common
+    Map<Integer, Integer> greedy = greedy(pairToCount);
+    if (new HashSet<>(greedy.values()).size() == greedy.size()) {
+      return greedy;
+    }
+
+    // number the entities, and solve the assignment problem on the overlap matrix
+    Map<Integer, Integer> rowOf = new HashMap<>(), colOf = new HashMap<>();
+    List<Integer> rowEntity = new ArrayList<>(), colEntity = new ArrayList<>();
+    int[] edgeRow = new int[pairToCount.size()], edgeCol = new int[pairToCount.size()];
+    double[] edgeWeight = new double[pairToCount.size()];
+    int edges = 0;
+    for (Entry<Long, int[]> e : pairToCount.entrySet()) {
+      int e0 = EntityOverlap.goldEntityId(e.getKey()), e1 = EntityOverlap.entityId(e.getKey());
+      edgeRow[edges] = rowOf.computeIfAbsent(e0, k -> {
+        rowEntity.add(k);
+        return rowEntity.size() - 1;
+      });
+      edgeCol[edges] = colOf.computeIfAbsent(e1, k -> {
+        colEntity.add(k);
+        return colEntity.size() - 1;
+      });
+      edgeWeight[edges++] = e.getValue()[0];
+    }
+    int[] assignment = KuhnMunkres.solveSparse(rowEntity.size(), colEntity.size(), edgeRow, edgeCol, edgeWeight, edges);
+
+    Map<Integer, Integer> result = new HashMap<>();
+    for (int row = 0; row < assignment.length; row++) {
+      if (assignment[row] >= 0) {
+        result.put(rowEntity.get(row), colEntity.get(assignment[row]));
       }
     }
+    return result;
+  }
 
-    Map<String, String> result = new HashMap<>();
-    for (Integer i : reverse.descendingKeySet()) {
-      for (Entry<String, String> re : reverse.get(i).entrySet()) {
-        result.putIfAbsent(re.getKey(), re.getValue());
+  /**
+   * For every entity of tt0, keep the entity of tt1 with the highest count (the lower id on ties)
+   */
+  private Map<Integer, Integer> greedy(Map<Long, int[]> pairToCount) {
+    Map<Integer, int[]> best = new HashMap<>();
+    for (Entry<Long, int[]> e : pairToCount.entrySet()) {
+      int e0 = EntityOverlap.goldEntityId(e.getKey()), e1 = EntityOverlap.entityId(e.getKey());
+      int count = e.getValue()[0];
+      int[] b = best.get(e0);
+      if (b == null) {
+        best.put(e0, new int[] { e1, count });
+      } else if (count > b[1] || (count == b[1] && e1 < b[0])) {
+        b[0] = e1;
+        b[1] = count;
       }
     }
 
+    Map<Integer, Integer> result = new HashMap<>();
+    best.forEach((e0, b) -> result.put(e0, b[0]));
     return result;
   }
 
+  /**
+   * Count the mentions that each pair of entities has in common, see {@link EntityOverlap#getPairCounts(int)}
+   */
+  private Map<Long, int[]> getEntityIdPairCount(TaggedText tt0, TaggedText tt1) {
+    return new EntityOverlap(tt0, tt1).getPairCounts(1);
+  }
+
   private Map<String, Map<String, Integer>> getEntityMapPosibilitiesCount(TaggedText tt0, TaggedText tt1) {
+    EntityDictionary dict = EntityDictionary.getGlobal();
     Map<String, Map<String, Integer>> assignmentsCount = new HashMap<>();
-
-    CompareIterator ci = new CompareIterator(tt0.text, tt0.id, tt0.mentions, tt1.mentions);
-    for (ComparePair cp : Utility.iterable(ci)) {
-      EntityMention em0 = cp.getPrincipalMention(0);
-      EntityMention em1 = cp.getPrincipalMention(1);
-
-      if (em0 != null && em0.entity != null && em1 != null && em1.entity != null) {
-        assignmentsCount.compute(em0.entity, (tt0entity, map) -> {
-          if (map == null) {
-            map = new HashMap<String, Integer>();
-          }
-          map.compute(em1.entity, (tt1entity, counter) -> {
-            if (counter == null) {
-              counter = 0;
-            }
-            return ++counter;
-          });
-          return map;
-        });
-      }
-    }
+    getEntityIdPairCount(tt0, tt1).forEach((pair, count) -> {
+      String e0 = dict.getEntity(EntityOverlap.goldEntityId(pair)), e1 = dict.getEntity(EntityOverlap.entityId(pair));
+      assignmentsCount.computeIfAbsent(e0, k -> new HashMap<>()).put(e1, count[0]);
+    });
     return assignmentsCount;
   }
 
   /**
    * Get all possible entity maps between two tagged texts. Key and value entities have at least one mention in common.
+   * The number of maps grows exponentially with the number of entities.
+   * @deprecated use {@link #guessEntityMapOptimal(TaggedText, TaggedText)} to find the best one-to-one map
    * @param tt0
    * @param tt1
    * @param removeSquareOfMax truncate a mapping of entity0 to entity1 if they don't have (relatively speaking) enough mentions in common.
    * @return
    */
+  @Deprecated
   public Iterator<Map<String, String>> getPossibleEntityMaps(TaggedText tt0, TaggedText tt1, boolean removeSquareOfMax) {
     Map<String, Map<String, Integer>> possiblitiesCount = getEntityMapPosibilitiesCount(tt0, tt1);
     //log.error("{}", possiblitiesCount);
@@ -0,0 +1,137 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs external commands. The standard output is passed line by line to a consumer as soon as it arrives, the standard error gets logged.
+ * Both streams are drained by separate threads, so the process cannot block on a full pipe.
+ * The number of concurrently running processes is limited, and processes are killed after a timeout.
+ * The limit applies to the processes of one runner; several evaluators share a runner to stay within one limit together.
+ *
+ * @author Thomas Rebele
+ */
+public class ProcessRunner {
+
+  private final static Logger log = LoggerFactory.getLogger(ProcessRunner.class);
+
+  /** threads which drain the streams of the processes */
+  private static final ExecutorService pumps = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "process-runner-pump");
+    t.setDaemon(true);
+    return t;
+  });
+
+  /** slots for running processes */
+  private final Semaphore slots;
+
+  private final long timeoutMillis;
+
+  /**
+   * @param maxConcurrent maximum number of processes running at the same time (at least 1)
+   * @param timeoutMillis kill process after this time, 0 for no timeout
+   */
+  public ProcessRunner(int maxConcurrent, long timeoutMillis) {
+    this.slots = new Semaphore(Math.max(1, maxConcurrent), true);
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Run a command and wait until it finishes.
+   * @param command program and its arguments
+   * @param stdout receives the lines of the standard output; called from a single thread
+   * @return exit value of the process
+   * @throws IOException if the process could not be started, its output could not be read, or it timed out
+   * @throws InterruptedException
+   */
+  public int run(List<String> command, Consumer<String> stdout) throws IOException, InterruptedException {
+    slots.acquire();
+    Process p = null;
+    try {
+      log.debug("executing command: {}", command);
+      p = new ProcessBuilder(command).start();
+      p.getOutputStream().close();
+      final Process process = p;
+      Future<?> out = pumps.submit(() -> pump(process.getInputStream(), stdout));
+      Future<?> err = pumps.submit(() -> pump(process.getErrorStream(), line -> log.debug("{}: {}", command.get(0), line)));
+
+      boolean finished = true;
+      if (timeoutMillis > 0) {
+        finished = p.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+      } else {
+        p.waitFor();
+      }
+      if (!finished) {
+        p.destroyForcibly();
+        out.cancel(true);
+        err.cancel(true);
+        throw new IOException("command timed out after " + timeoutMillis + " ms: " + command);
+      }
+      await(out);
+      await(err);
+      return p.exitValue();
+    } catch (InterruptedException e) {
+      if (p != null) {
+        p.destroyForcibly();
+      }
+      throw e;
+    } finally {
+      slots.release();
+    }
+  }
+
+  private static void await(Future<?> future) throws IOException, InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) cause).getCause();
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Pass all lines of the stream to the consumer. Keeps draining the stream if the consumer fails, and rethrows its first exception at the end.
+   */
+  private static void pump(InputStream is, Consumer<String> consumer) {
+    RuntimeException consumerException = null;
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (consumerException == null) {
+          try {
+            consumer.accept(line);
+          } catch (RuntimeException e) {
+            consumerException = e;
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (consumerException != null) {
+      throw consumerException;
+    }
+  }
+}
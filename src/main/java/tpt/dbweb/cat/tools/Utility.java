@@ -6,6 +6,7 @@ package tpt.dbweb.cat.tools;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -83,9 +84,15 @@ public class Utility {
     return set;
   }
 
+  /**
+   * @param src name of the resource, encoded in UTF-8
+   * @return content of the resource
+   * @throws IOException
+   */
   public static String readResourceAsString(String src) throws IOException {
-    InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(src);
-    return IOUtils.toString(is);
+    try (InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(src)) {
+      return IOUtils.toString(is, StandardCharsets.UTF_8);
+    }
   }
 
   public static int getCommonPrefixLength(String first, String second) {
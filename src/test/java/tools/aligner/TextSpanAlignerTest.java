@@ -0,0 +1,193 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tools.aligner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tools.aligner.TextSpanAligner.DiffMode;
+import tpt.dbweb.cat.datatypes.TextSpan;
+
+public class TextSpanAlignerTest {
+
+  private static final String TOKENIZED = "Barack Obama and Michelle Obama visited Paris and Lyon on Monday . "
+      + "Obama 's wife , Michelle , met the U.S. president , and the president said : Welcome to Paris .";
+
+  private static final String DETOKENIZED = "Barack and Michelle Obama visited Lyon and Paris on Monday.\n"
+      + "Obama's wife, Michelle, met the U.S. President, and the president said: Welcome to Paris.";
+
+  /**
+   * @return one span per space separated token of text
+   */
+  private List<TextSpan> tokens(String text) {
+    List<TextSpan> result = new ArrayList<>();
+    int start = 0;
+    for (String token : text.split(" ")) {
+      result.add(new TextSpan(text, start, start + token.length()));
+      start += token.length() + 1;
+    }
+    return result;
+  }
+
+  /**
+   * @return tokens of src which have the same text after the alignment, ignoring case
+   */
+  private List<String> kept(String src, String dst, TextSpanAligner<TextSpan> aligner) {
+    List<String> result = new ArrayList<>();
+    for (TextSpan token : tokens(src)) {
+      TextSpan aligned = aligner.align(token);
+      if (aligned.start >= 0 && aligned.start <= aligned.end && aligned.end <= dst.length() && aligned.spanString().equalsIgnoreCase(token.spanString())) {
+        result.add(token.spanString());
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testDiffModes() {
+    int count = tokens(TOKENIZED).size();
+    // the first "Obama" is deleted, "Paris" and "Lyon" are swapped
+    List<String> character = kept(TOKENIZED, DETOKENIZED, new TextSpanAligner<>(TOKENIZED, DETOKENIZED, DiffMode.CHARACTER));
+    assertEquals(count - 3, character.size());
+    assertEquals(TOKENIZED.replaceFirst("Obama ", "").replaceFirst("Paris and Lyon", "and"), String.join(" ", character));
+    // the token diff keeps "Lyon", but not the "and" before it
+    List<String> token = kept(TOKENIZED, DETOKENIZED, new TextSpanAligner<>(TOKENIZED, DETOKENIZED, DiffMode.TOKEN));
+    assertEquals(count - 3, token.size());
+    assertEquals(TOKENIZED.replaceFirst("Obama ", "").replaceFirst("Paris and Lyon", "Lyon"), String.join(" ", token));
+  }
+
+  private List<String> align(String src, String dst, TextSpanAligner<TextSpan> aligner) {
+    List<String> result = new ArrayList<>();
+    for (TextSpan span : aligner.align(tokens(src))) {
+      result.add(span.start + "-" + span.end);
+    }
+    return result;
+  }
+
+  @Test
+  public void testDefaultMode() {
+    // short texts are diffed by characters
+    assertEquals(align(TOKENIZED, DETOKENIZED, new TextSpanAligner<>(TOKENIZED, DETOKENIZED, DiffMode.CHARACTER)),
+        align(TOKENIZED, DETOKENIZED, new TextSpanAligner<>(TOKENIZED, DETOKENIZED)));
+
+    // long texts by tokens
+    StringBuilder src = new StringBuilder(), dst = new StringBuilder();
+    while (src.length() <= TextSpanAligner.TOKEN_DIFF_THRESHOLD) {
+      src.append(TOKENIZED).append(' ');
+      dst.append(DETOKENIZED).append('\n');
+    }
+    String srcText = src.toString().trim(), dstText = dst.toString().trim();
+    assertEquals(align(srcText, dstText, new TextSpanAligner<>(srcText, dstText, DiffMode.TOKEN)),
+        align(srcText, dstText, new TextSpanAligner<>(srcText, dstText)));
+  }
+
+  /**
+   * Align the spans of src, given by the substrings they cover, with both diff modes, and compare the result with the expected strings of dst
+   */
+  private void assertAligned(String src, String dst, String[] spans, String... expected) {
+    for (DiffMode mode : new DiffMode[] { DiffMode.CHARACTER, DiffMode.TOKEN }) {
+      TextSpanAligner<TextSpan> aligner = new TextSpanAligner<>(src, dst, mode);
+      for (int i = 0; i < spans.length; i++) {
+        int start = src.indexOf(spans[i]);
+        TextSpan aligned = aligner.align(new TextSpan(src, start, start + spans[i].length()));
+        assertEquals(mode + " " + spans[i], expected[i], aligned.spanString());
+      }
+    }
+  }
+
+  @Test
+  public void testWhitespace() {
+    // example of the main method
+    String src = "\n abc def ghi", dst = "abc  def  ghi";
+    assertAligned(src, dst, new String[] { "abc", "def", "ghi", "def ghi", "abc def ghi" }, "abc", "def", "ghi", "def  ghi", "abc  def  ghi");
+
+    // empty span before the first character after the removed whitespace
+    TextSpan empty = new TextSpanAligner<TextSpan>(src, dst).align(new TextSpan(src, 2, 2));
+    assertEquals(0, empty.start);
+    assertEquals(0, empty.end);
+
+    assertAligned("a\tb\n\nc  ", "a b\nc", new String[] { "a", "b", "c", "b\n\nc" }, "a", "b", "c", "b\nc");
+  }
+
+  @Test
+  public void testEditAtBeginning() {
+    String src = "The president met Merkel .", dst = "A president met Merkel.";
+    assertAligned(src, dst, new String[] { "president", "met Merkel", "." }, "president", "met Merkel", ".");
+
+    src = "The U.S. president met Merkel";
+    dst = "U.S. president met Merkel";
+    assertAligned(src, dst, new String[] { "U.S.", "U.S. president", "Merkel" }, "U.S.", "U.S. president", "Merkel");
+    TextSpan empty = new TextSpanAligner<TextSpan>(src, dst).align(new TextSpan(src, 4, 4));
+    assertEquals(0, empty.start);
+    assertEquals(0, empty.end);
+  }
+
+  @Test
+  public void testEditAtEnd() {
+    String src = "President Obama\n announced to journalists this evening";
+    String dst = "President Obama announced to journalists this evening ( Saturday )";
+    assertAligned(src, dst, new String[] { "Obama", "journalists", "evening" }, "Obama", "journalists", "evening");
+
+    src = "Obama met Merkel in Berlin today";
+    dst = "Obama met Merkel in Berlin";
+    assertAligned(src, dst, new String[] { "Obama", "Merkel", "in Berlin" }, "Obama", "Merkel", "in Berlin");
+  }
+
+  /**
+   * The other alignment methods, which search the shift table starting from the last result, need to agree with {@link TextSpanAligner#align(TextSpan)}
+   */
+  @Test
+  public void testAlignVariants() {
+    TextSpanAligner<TextSpan> aligner = new TextSpanAligner<>(TOKENIZED, DETOKENIZED);
+    Random random = new Random(42);
+    List<TextSpan> spans = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      int start = random.nextInt(TOKENIZED.length() + 1);
+      spans.add(new TextSpan(TOKENIZED, start, Math.min(TOKENIZED.length(), start + random.nextInt(20))));
+    }
+    List<TextSpan> sorted = new ArrayList<>(spans);
+    sorted.sort(Comparator.comparingInt(span -> span.start));
+    for (List<TextSpan> input : Arrays.asList(sorted, spans)) {
+      List<TextSpan> expected = aligner.align(input);
+
+      List<TextSpan> inPlace = new ArrayList<>();
+      input.forEach(span -> inPlace.add(new TextSpan(TOKENIZED, span.start, span.end)));
+      inPlace.add(null);
+      aligner.alignInPlace(inPlace);
+
+      int[] starts = new int[input.size()], ends = new int[input.size()];
+      for (int i = 0; i < input.size(); i++) {
+        starts[i] = input.get(i).start;
+        ends[i] = input.get(i).end;
+      }
+      int[] alignedStarts = new int[input.size()], alignedEnds = new int[input.size()];
+      aligner.align(starts, ends, input.size(), alignedStarts, alignedEnds);
+      // output arrays are the input arrays
+      aligner.align(starts, ends, input.size(), starts, ends);
+
+      for (int i = 0; i < input.size(); i++) {
+        String msg = "span " + input.get(i).start + "-" + input.get(i).end;
+        assertEquals(msg, expected.get(i).start, aligner.alignStart(input.get(i).start));
+        assertEquals(msg, expected.get(i).end, aligner.alignEnd(input.get(i).end));
+        assertEquals(msg, expected.get(i).start, inPlace.get(i).start);
+        assertEquals(msg, expected.get(i).end, inPlace.get(i).end);
+        assertEquals(DETOKENIZED, inPlace.get(i).text);
+        assertEquals(msg, expected.get(i).start, alignedStarts[i]);
+        assertEquals(msg, expected.get(i).end, alignedEnds[i]);
+        assertEquals(msg, expected.get(i).start, starts[i]);
+        assertEquals(msg, expected.get(i).end, ends[i]);
+      }
+      assertNull(inPlace.get(input.size()));
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tools.aligner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import tools.aligner.DiffMatchPatch.Diff;
+import tools.aligner.DiffMatchPatch.Operation;
+import tools.aligner.TextSpanAligner.DiffMode;
+import tpt.dbweb.cat.datatypes.TextSpan;
+
+public class TokenDiffTest {
+
+  @Test
+  public void testDiff() {
+    String text1 = "President Obama announced to journalists this evening that the president will visit Paris.";
+    String text2 = "President Barack Obama announced to the journalists that the president will visit Lyon on Monday.";
+    StringBuilder sb1 = new StringBuilder(), sb2 = new StringBuilder();
+    for (Diff d : TokenDiff.diff(text1, text2)) {
+      if (d.operation != Operation.INSERT) {
+        sb1.append(d.text);
+      }
+      if (d.operation != Operation.DELETE) {
+        sb2.append(d.text);
+      }
+    }
+    assertEquals(text1, sb1.toString());
+    assertEquals(text2, sb2.toString());
+  }
+
+  @Test
+  public void testAlign() {
+    String text1 = "the president met the president of France , and the president said";
+    String text2 = "The president met the president of the French Republic, and the president   said";
+    List<TextSpan> spans = Arrays.asList(new TextSpan(text1, 4, 13), new TextSpan(text1, 22, 34), new TextSpan(text1, 62, 66));
+    List<TextSpan> aligned = new TextSpanAligner<TextSpan>(text1, text2, DiffMode.TOKEN).align(spans);
+    assertEquals("president", aligned.get(0).spanString());
+    assertEquals("president of", aligned.get(1).spanString());
+    assertEquals("said", aligned.get(2).spanString());
+  }
+}
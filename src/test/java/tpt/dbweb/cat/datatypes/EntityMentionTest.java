@@ -0,0 +1,40 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.datatypes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EntityMentionTest {
+
+  @Test
+  public void testEntityId() {
+    EntityDictionary dict = EntityDictionary.getGlobal();
+    String text = "Obama met Merkel";
+    EntityMention em = new EntityMention(text, 0, 5, new String("Barack_Obama"));
+    int id = em.getEntityId();
+    assertEquals(dict.getId("Barack_Obama"), id);
+    assertEquals(id, em.getEntityId());
+
+    // the id follows changes of the entity
+    em.entity = "Angela_Merkel";
+    assertEquals(dict.getId("Angela_Merkel"), em.getEntityId());
+    assertNotEquals(id, em.getEntityId());
+    em.entity = null;
+    assertEquals(-1, em.getEntityId());
+
+    EntityMention other = new EntityMention(text, 10, 16, new String("Angela_Merkel"));
+    other.internEntity();
+    assertSame(dict.getEntity(dict.getId("Angela_Merkel")), other.entity);
+    EntityMention copy = new EntityMention(other);
+    copy.entity = "Barack_Obama";
+    assertEquals(id, copy.getEntityId());
+    assertTrue(other.sameEntity(new EntityMention(text, 10, 16, "Angela_Merkel")));
+  }
+}
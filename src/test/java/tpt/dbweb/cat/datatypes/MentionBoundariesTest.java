@@ -0,0 +1,58 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.datatypes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import tpt.dbweb.cat.datatypes.iterators.EntityMentionPosIterator.PosType;
+import tpt.dbweb.cat.datatypes.iterators.MentionBoundaries;
+
+public class MentionBoundariesTest {
+
+  private List<String> boundaries(MentionBoundaries b) {
+    List<String> result = new ArrayList<>();
+    while (b.advance()) {
+      result.add(b.pos() + " " + b.posType() + " " + b.row());
+    }
+    assertFalse(b.advance());
+    assertEquals(Integer.MAX_VALUE, b.pos());
+    assertEquals(-1, b.row());
+    assertEquals(PosType.INVALID, b.posType());
+    return result;
+  }
+
+  @Test
+  public void testEqualPositions() {
+    String text = "abcde fgh";
+    List<EntityMention> mentions = Arrays.asList(new EntityMention(text, 0, 5, "A"), new EntityMention(text, 5, 8, "B"),
+        new EntityMention(text, 5, 5, "Z"), new EntityMention(text, 2, 5, "C"), new EntityMention(text, 0, 5, "D"));
+    List<String> expected = Arrays.asList(
+        // mentions with the same span keep their list order
+        "0 START 0", "0 START 4", "2 START 3",
+        // ends before starts, and ends at the same position in mention order
+        "5 END 0", "5 END 4", "5 END 3",
+        // starts in mention order, and the start of a zero-length mention before its end
+        "5 START 1", "5 START 2", "5 END 2",
+        "8 END 1");
+    assertEquals(expected, boundaries(new MentionBoundaries(mentions)));
+
+    int[] starts = { 0, 5, 5, 2, 0 }, ends = { 5, 8, 5, 5, 5 };
+    assertEquals(expected, boundaries(new MentionBoundaries(starts, ends)));
+  }
+
+  @Test
+  public void testZeroLength() {
+    // only zero-length mentions at the same position
+    assertEquals(Arrays.asList("3 START 0", "3 END 0", "3 START 1", "3 END 1"), boundaries(new MentionBoundaries(new int[] { 3, 3 }, new int[] { 3, 3 })));
+    assertEquals(Arrays.asList(), boundaries(new MentionBoundaries(new int[0], new int[0])));
+  }
+}
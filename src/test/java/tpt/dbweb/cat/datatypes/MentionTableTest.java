@@ -0,0 +1,41 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.datatypes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MentionTableTest {
+
+  @Test
+  public void testRoundTrip() {
+    String text = "abc def ghi jkl";
+    List<EntityMention> mentions = new ArrayList<>();
+    mentions.add(new EntityMention(text, 8, 11, "B"));
+    mentions.add(new EntityMention(text, 0, 3, "A"));
+    EntityMention em = new EntityMention(text, 0, 7, "B");
+    em.min = new TextSpan(text, 4, 7);
+    em.info().put("type", "PER");
+    mentions.add(em);
+
+    MentionTable table = MentionTable.of(text, mentions);
+    assertEquals(mentions, table.asList());
+    assertEquals("PER", table.attribute(2, "type"));
+
+    table.sort();
+    mentions.sort(null);
+    assertEquals(mentions, table.asList());
+    assertEquals(4, table.minOrStart(0));
+    assertEquals(0, table.minOrStart(1));
+    assertEquals("PER", table.get(0).info().get("type"));
+    assertNull(table.attribute(1, "type"));
+    assertEquals(table.entityId(0), table.entityId(2));
+  }
+}
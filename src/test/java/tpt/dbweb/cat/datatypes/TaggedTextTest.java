@@ -5,9 +5,15 @@
 package tpt.dbweb.cat.datatypes;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
+import org.junit.Test;
+
 public class TaggedTextTest {
 
   public static void assertEquality(TaggedText expected, TaggedText actual) {
@@ -34,4 +40,24 @@ public class TaggedTextTest {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void testShareText() {
+    TaggedText tt0 = new TaggedText();
+    tt0.text = "Bill Daley met him";
+    TaggedText tt1 = new TaggedText();
+    tt1.text = new String(tt0.text);
+    EntityMention em = new EntityMention(tt1.text, 0, 10, "1");
+    em.min = new TextSpan(tt1.text, 5, 10);
+    tt1.mentions = Arrays.asList(em);
+
+    assertTrue(tt1.shareText(tt0));
+    assertSame(tt0.text, tt1.text);
+    assertSame(tt0.text, em.text);
+    assertSame(tt0.text, em.min.text);
+
+    TaggedText tt2 = new TaggedText();
+    tt2.text = "Bill Daley met her";
+    assertFalse(tt2.shareText(tt0));
+    assertEquals("Bill Daley met her", tt2.text);
+  }
 }
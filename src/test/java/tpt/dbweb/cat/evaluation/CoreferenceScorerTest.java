@@ -0,0 +1,135 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.evaluation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+import tpt.dbweb.cat.io.ConllReader;
+
+public class CoreferenceScorerTest {
+
+  private static final double DELTA = 0.0001;
+
+  /**
+   * Create a tagged text with one mention per letter. The chains are given as strings of letters, e.g. "abc".
+   */
+  private TaggedText create(String... chains) {
+    TaggedText tt = new TaggedText();
+    tt.id = "doc";
+    tt.text = "a b c d e f g h i";
+    for (int i = 0; i < chains.length; i++) {
+      for (char c : chains[i].toCharArray()) {
+        int pos = 2 * (c - 'a');
+        tt.mentions.add(new EntityMention(tt.text, pos, pos + 1, "E" + i));
+      }
+    }
+    tt.mentions.sort(null);
+    return tt;
+  }
+
+  private void assertMetric(Map<String, EvaluationStatistics> result, String metric, double recall, double precision) {
+    assertMetric("", result, metric, recall, precision);
+  }
+
+  private void assertMetric(String msg, Map<String, EvaluationStatistics> result, String metric, double recall, double precision) {
+    assertEquals(msg + metric + " recall", recall, result.get(metric).getRecall(), DELTA);
+    assertEquals(msg + metric + " precision", precision, result.get(metric).getPrecision(), DELTA);
+  }
+
+  @Test
+  public void testExample() {
+    // example of Pradhan et al. 2014, "Scoring Coreference Partitions of Predicted Mentions: A Reference Implementation"
+    TaggedText key = create("abc", "defg");
+    TaggedText response = create("ab", "cd", "fghi");
+
+    Map<String, EvaluationStatistics> result = new CoreferenceScorer().score(key, response);
+    assertMetric(result, "muc", 2. / 5, 2. / 5);
+    assertMetric(result, "bcub", 35. / 12 / 7, 4. / 8);
+    assertMetric(result, "ceafm", 4. / 7, 4. / 8);
+    assertMetric(result, "ceafe", 1.3 / 2, 1.3 / 3);
+    assertMetric(result, "blanc", (2. / 9 + 8. / 12) / 2, (2. / 8 + 8. / 20) / 2);
+    assertMetric(result, "lea", (3 * 1. / 3 + 4 * 1. / 6) / 7, (2 * 1. + 4 * 1. / 6) / 8);
+  }
+
+  @Test
+  public void testIdentical() {
+    TaggedText key = create("abc", "defg", "h");
+    Map<String, EvaluationStatistics> result = new CoreferenceScorer().score(key, create("abc", "defg", "h"));
+    for (String metric : CoreferenceScorer.METRICS) {
+      assertMetric(result, metric, 1, 1);
+    }
+  }
+
+  private Path resource(String name) throws URISyntaxException {
+    return Paths.get(getClass().getResource(name).toURI());
+  }
+
+  /**
+   * Compare with the scores of scorer.pl, as recorded in doc/examples/tutorial-out.xml and doc/examples/russel-out.xml
+   */
+  @Test
+  public void testRecordedScorerPl() throws IOException, URISyntaxException {
+    // response, document, and recall and precision of muc, bcub, ceafm and ceafe
+    Object[][] expected = {
+        { "tutorial-1.conll", "Tutorial", new double[] { 0.75, 0.75, 0.6666667, 0.6666667, 0.6666667, 0.6666667, 0.6666667, 0.6666667 } },
+        { "tutorial-2.conll", "Tutorial", new double[] { 0.75, 1.0, 0.7083333, 1.0, 0.8333333, 1.0, 0.9285714, 0.9285714 } },
+        { "russel-1.conll", "Bertrand Russel: Early life and background",
+            new double[] { 0.9375, 0.9375, 0.87272733, 0.9142858, 0.90909094, 0.95238096, 0.8, 0.96000004 } },
+        { "russel-2.conll", "Bertrand Russel: Early life and background",
+            new double[] { 0.625, 0.6666667, 0.6181818, 0.66303855, 0.72727275, 0.7619048, 0.7456655, 0.7456655 } } };
+    String[] metrics = { "muc", "bcub", "ceafm", "ceafe" };
+    for (Object[] row : expected) {
+      String response = (String) row[0];
+      Path key = resource(response.replaceAll("-\\d", ""));
+      ComparisonResult actual = new CoreferenceScorer().compare(ConllReader.readConllFile(key, 0), ConllReader.readConllFile(resource(response), 0));
+      double[] values = (double[]) row[2];
+      for (int i = 0; i < metrics.length; i++) {
+        assertMetric(response + " " + row[1] + " ", actual.docidToMetricToResult.get(row[1]), metrics[i], values[2 * i], values[2 * i + 1]);
+      }
+    }
+  }
+
+  /**
+   * Compare with the output of scorer.pl v8.01 on the CoNLL export of the examples in doc/examples.
+   * Needs a checkout of lib/reference-coreference-scorers, otherwise the test is skipped.
+   */
+  @Test
+  public void testScorerPl() throws IOException, URISyntaxException {
+    Assume.assumeTrue("scorer.pl not found", Files.exists(Paths.get("lib/reference-coreference-scorers/scorer.pl")));
+    ReferenceEvaluator.Options options = new ReferenceEvaluator.Options();
+    options.scorer = ReferenceEvaluator.Scorer.PERL;
+    ReferenceEvaluator evaluator = new ReferenceEvaluator(options);
+
+    String[][] pairs = { { "tutorial.conll", "tutorial-1.conll" }, { "tutorial.conll", "tutorial-2.conll" }, { "russel.conll", "russel-1.conll" },
+        { "russel.conll", "russel-2.conll" } };
+    for (String[] pair : pairs) {
+      Path key = resource(pair[0]), response = resource(pair[1]);
+      ComparisonResult expected = evaluator.compareConllFiles(key, response, null);
+      ComparisonResult actual = new CoreferenceScorer().compare(ConllReader.readConllFile(key, 0), ConllReader.readConllFile(response, 0));
+      assertEquals(pair[1], expected.docidToMetricToResult.keySet(), actual.docidToMetricToResult.keySet());
+      for (String docid : expected.docidToMetricToResult.keySet()) {
+        for (String metric : CoreferenceScorer.METRICS) {
+          EvaluationStatistics e = expected.docidToMetricToResult.get(docid).get(metric);
+          String msg = pair[1] + " " + docid + " ";
+          assertMetric(msg, actual.docidToMetricToResult.get(docid), metric, e.getRecall(), e.getPrecision());
+          assertEquals(msg + metric + " f1", e.getF1(), actual.docidToMetricToResult.get(docid).get(metric).getF1(), DELTA);
+        }
+      }
+    }
+  }
+
+}
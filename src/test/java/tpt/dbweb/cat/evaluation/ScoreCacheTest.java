@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.evaluation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+public class ScoreCacheTest {
+
+  private TaggedText create(String id, String entity) {
+    TaggedText tt = new TaggedText();
+    tt.id = id;
+    tt.text = "Obama met Merkel. He left.";
+    tt.mentions.add(new EntityMention(tt.text, 0, 5, "Obama"));
+    tt.mentions.add(new EntityMention(tt.text, 10, 16, "Merkel"));
+    tt.mentions.add(new EntityMention(tt.text, 18, 20, entity));
+    return tt;
+  }
+
+  private Path path(Path directory, String key) {
+    return directory.resolve(key.substring(0, 2)).resolve(key + ".json");
+  }
+
+  @Test
+  public void testPutGet() throws IOException {
+    Path directory = Files.createTempDirectory("cat-score-cache-test");
+    try {
+      ScoreCache cache = new ScoreCache(directory, 1 << 20);
+      TaggedText gold = create("doc", "Obama"), response = create("doc", "Merkel");
+      String key = ScoreCache.key("NATIVE", gold, response);
+      assertNull(cache.get(key));
+
+      Map<String, EvaluationStatistics> expected = new CoreferenceScorer().score(gold, response);
+      cache.put(key, expected);
+      Map<String, EvaluationStatistics> actual = cache.get(key);
+      assertNotNull(actual);
+      assertEquals(expected.keySet(), actual.keySet());
+      for (String metric : expected.keySet()) {
+        assertEquals(metric, expected.get(metric).getRecall(), actual.get(metric).getRecall(), 0);
+        assertEquals(metric, expected.get(metric).getPrecision(), actual.get(metric).getPrecision(), 0);
+      }
+      // no temporary files are left
+      try (Stream<Path> files = Files.list(path(directory, key).getParent())) {
+        assertEquals(1, files.count());
+      }
+    } finally {
+      FileUtils.deleteDirectory(directory.toFile());
+    }
+  }
+
+  @Test
+  public void testKey() {
+    TaggedText gold = create("doc", "Obama");
+    String key = ScoreCache.key("NATIVE", gold, create("doc", "Merkel"));
+    assertEquals(key, ScoreCache.key("NATIVE", create("doc", "Obama"), create("doc", "Merkel")));
+
+    // edit a mention of the response
+    TaggedText response = create("doc", "Merkel");
+    response.mentions.get(2).entity = "Obama";
+    assertNotEquals(key, ScoreCache.key("NATIVE", gold, response));
+    response = create("doc", "Merkel");
+    response.mentions.get(2).end = 19;
+    assertNotEquals(key, ScoreCache.key("NATIVE", gold, response));
+
+    assertNotEquals(key, ScoreCache.key("PERL all 0123", gold, create("doc", "Merkel")));
+  }
+
+  @Test
+  public void testEvict() throws IOException {
+    Path directory = Files.createTempDirectory("cat-score-cache-test");
+    try {
+      ScoreCache cache = new ScoreCache(directory, 1 << 20);
+      String[] keys = new String[3];
+      long size = 0;
+      for (int i = 0; i < keys.length; i++) {
+        TaggedText gold = create("doc" + i, "Obama"), response = create("doc" + i, "Merkel");
+        keys[i] = ScoreCache.key("NATIVE", gold, response);
+        cache.put(keys[i], new CoreferenceScorer().score(gold, response));
+        Path path = path(directory, keys[i]);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(1000000000000L + i * 1000));
+        if (i > 0) {
+          size += Files.size(path);
+        }
+      }
+
+      // keep the two most recently used entries
+      new ScoreCache(directory, size).evict();
+      assertFalse(Files.exists(path(directory, keys[0])));
+      assertTrue(Files.exists(path(directory, keys[1])));
+      assertTrue(Files.exists(path(directory, keys[2])));
+    } finally {
+      FileUtils.deleteDirectory(directory.toFile());
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+public class ConllReaderTest {
+
+  @Test
+  public void testRead() throws IOException {
+    String conll = "#begin document (a); part 000\n"
+        + "a 0 0 Bill  NNP  (1\n"
+        + "a 0 1 Daley NNP  1)\n"
+        + "a 0 2 met   VBD  -\n"
+        + "a 0 3 him   PRP  (2)|(1)\n"
+        + "\n"
+        + "a 0 0 .     .    -\n"
+        + "#end document\n"
+        + "#begin document (b); part 000\n"
+        + "b 0 0 Paris NNP\t(3)\n"
+        + "#end document\n";
+    Path path = Files.createTempFile("cat-conll-test", ".conll");
+    try {
+      Files.write(path, conll.getBytes(StandardCharsets.UTF_8));
+      List<TaggedText> tts = ConllReader.readConllFile(path, ConllReader.CONLL_2012_WORD_COLUMN);
+      assertEquals(2, tts.size());
+      TaggedText tt = tts.get(0);
+      assertEquals("(a); part 000", tt.id);
+      assertEquals("Bill Daley met him\n.", tt.text);
+      assertEquals(3, tt.mentions.size());
+      assertEquals("Bill Daley", tt.mentions.get(0).spanString());
+      assertEquals("1", tt.mentions.get(0).entity);
+      assertEquals("him", tt.mentions.get(2).spanString());
+      assertEquals("Paris", tts.get(1).mentions.get(0).spanString());
+    } finally {
+      Files.delete(path);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+public class StoredCorpusTest {
+
+  @Test
+  public void testStore() throws IOException {
+    String xml = "<article><mark entity='Obama' min='Obama'>President Obama</mark> visited <mark entity='Paris'>Paris</mark>.</article>"
+        + "<article>Nothing.</article>";
+    List<TaggedText> tts = new TaggedTextXMLReader().getTaggedTextFromString(xml);
+    try (StoredCorpus corpus = StoredCorpus.create(tts.iterator())) {
+      assertEquals(2, corpus.size());
+      assertEquals("President Obama visited Paris.", corpus.getText(0).toString());
+      assertEquals("Nothing.", corpus.getText(1).toString());
+      assertNull(corpus.getArticle(0).mentions.get(0).text);
+      assertEquals(tts, corpus.asList());
+
+      for (int i = 0; i < tts.size(); i++) {
+        assertEquals(tts.get(i), corpus.get(i));
+        assertEquals(TaggedTextXMLWriter.toMarkedText(tts.get(i)),
+            TaggedTextXMLWriter.toMarkedText(corpus.getText(i), new ArrayList<>(corpus.getArticle(i).mentions)));
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+public class TaggedTextSnapshotTest {
+
+  @Test
+  public void testSidecar() throws IOException {
+    String xml = "<articles><article id='a' source='test'>"
+        + "<mark entity='Obama' min='Obama' type='PER'>President Obama</mark> visited <mark entity='Paris'>Paris</mark> in été. "
+        + "<mark entity='Obama'>He</mark> left.</article>\n"
+        + "<article id='b'><mark entity='Paris'>Paris</mark></article></articles>";
+    Path path = Files.createTempFile("cat-snapshot-test", ".xml");
+    Path sidecar = TaggedTextSnapshot.sidecarPath(path);
+    try {
+      Files.write(path, xml.getBytes(StandardCharsets.UTF_8));
+      List<TaggedText> expected = new TaggedTextXMLReader().getTaggedText(path);
+
+      TaggedTextXMLReader.Options options = new TaggedTextXMLReader.Options();
+      options.snapshot = true;
+      assertEquals(expected, new TaggedTextXMLReader(options).getTaggedText(path));
+      assertTrue(Files.exists(sidecar));
+
+      List<TaggedText> actual = new TaggedTextXMLReader(options).getTaggedText(path);
+      assertEquals(expected, actual);
+      assertEquals(expected, TaggedTextSnapshot.read(sidecar));
+      assertEquals(expected.get(0).info(), actual.get(0).info());
+      EntityMention em = actual.get(0).mentions.get(0);
+      assertEquals("Obama", em.min.spanString());
+      assertEquals("PER", em.info().get("type"));
+      assertNull(actual.get(0).mentions.get(1).infoMap);
+    } finally {
+      Files.delete(path);
+      Files.deleteIfExists(sidecar);
+    }
+  }
+
+  @Test
+  public void testAbandoned() throws IOException {
+    Path directory = Files.createTempDirectory("cat-snapshot-test");
+    Path path = directory.resolve("test.xml");
+    try {
+      Files.write(path, "<articles><article id='a'>b</article><article id='c'>d</article></articles>".getBytes(StandardCharsets.UTF_8));
+      TaggedTextXMLReader.Options options = new TaggedTextXMLReader.Options();
+      options.snapshot = true;
+      Iterator<TaggedText> it = new TaggedTextXMLReader(options).iteratePath(path);
+      assertEquals("a", it.next().id);
+      ((Closeable) it).close();
+      // neither the snapshot nor its temporary file are kept
+      try (Stream<Path> files = Files.list(directory)) {
+        assertEquals(Arrays.asList(path), files.collect(Collectors.toList()));
+      }
+    } finally {
+      FileUtils.deleteDirectory(directory.toFile());
+    }
+  }
+}
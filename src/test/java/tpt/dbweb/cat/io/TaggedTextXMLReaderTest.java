@@ -0,0 +1,82 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+public class TaggedTextXMLReaderTest {
+
+  private List<TaggedText> read(Path path, boolean streaming) {
+    TaggedTextXMLReader.Options options = new TaggedTextXMLReader.Options();
+    options.streaming = streaming;
+    return new TaggedTextXMLReader(options).getTaggedText(path);
+  }
+
+  @Test
+  public void testStreaming() throws IOException {
+    String xml = "<articles>\n<article id='a'>\n  <mark entity='e1' min='b'>a\nb</mark>  c \n\n\n d<br/>\ne\t\t<mark entity='e2'>f</mark>\n</article>\n"
+        + "<article id='b'>g\n \n<mark entity='e1'> h </mark>\n</article>\n</articles>";
+    Path path = Files.createTempFile("cat-reader-test", ".xml");
+    try {
+      Files.write(path, xml.getBytes(StandardCharsets.UTF_8));
+      List<TaggedText> streamed = read(path, true);
+      List<TaggedText> expected = read(path, false);
+      assertEquals(2, streamed.size());
+      assertEquals("a b c\n\nd e f", streamed.get(0).text);
+      assertEquals(expected, streamed);
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).mentions.toString(), streamed.get(i).mentions.toString());
+      }
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testWithoutRoot() throws IOException {
+    String xml = "<article id='a'>b <mark entity='e'>c</mark></article>\n<article id='d'>e</article>\n";
+    Path path = Files.createTempFile("cat-reader-test", ".xml");
+    try {
+      Files.write(path, xml.getBytes(StandardCharsets.UTF_8));
+      List<TaggedText> tts = new TaggedTextXMLReader().getTaggedText(path);
+      assertEquals(2, tts.size());
+      assertEquals("a", tts.get(0).id);
+      assertEquals("b c", tts.get(0).text);
+      assertEquals(1, tts.get(0).mentions.size());
+      assertEquals("d", tts.get(1).id);
+      assertEquals("e", tts.get(1).text);
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testIndex() throws IOException {
+    String xml = "<articles><!-- <article id='x'> --><article id='a'>b <mark entity='e'>c</mark></article>\n<article id='d'>e</article></articles>";
+    Path path = Files.createTempFile("cat-index-test", ".xml");
+    try {
+      Files.write(path, xml.getBytes(StandardCharsets.UTF_8));
+      ArticleIndex index = ArticleIndex.load(path);
+      assertEquals(2, index.size());
+      assertEquals(xml.indexOf("<article id='d'>"), index.getOffset(1));
+      assertEquals(1, index.indexOf("d"));
+      assertEquals(read(path, true), new TaggedTextXMLReader().getTaggedTextParallel(path));
+      assertEquals("e", new TaggedTextXMLReader().getTaggedTextById(path, "d").text);
+    } finally {
+      Files.deleteIfExists(ArticleIndex.sidecarPath(path));
+      Files.delete(path);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tpt.dbweb.cat.datatypes.EntityDictionary;
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+public class EntityOverlapTest {
+
+  private static final String TEXT = "Barack Obama and his wife Michelle visited Paris";
+
+  /**
+   * Create a tagged text. The mentions are given as start, end and entity, e.g. "0 12 Obama".
+   */
+  private TaggedText create(String... mentions) {
+    TaggedText tt = new TaggedText();
+    tt.id = "doc";
+    tt.text = TEXT;
+    for (String mention : mentions) {
+      String[] parts = mention.split(" ");
+      tt.mentions.add(new EntityMention(tt.text, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), parts[2]));
+    }
+    return tt;
+  }
+
+  private List<EntityMention> copy(List<EntityMention> mentions) {
+    List<EntityMention> result = new ArrayList<>();
+    mentions.forEach(em -> result.add(new EntityMention(em)));
+    return result;
+  }
+
+  private Map<Long, Integer> counts(EntityOverlap overlap, int annotator) {
+    Map<Long, Integer> result = new HashMap<>();
+    overlap.getPairCounts(annotator).forEach((key, count) -> result.put(key, count[0]));
+    return result;
+  }
+
+  /**
+   * Check that the overlap of all annotators has the same counts as the overlap of the gold standard with each annotator
+   * @return overlap of all annotators
+   */
+  private EntityOverlap assertPairwise(TaggedText... tts) {
+    List<List<EntityMention>> mentions = new ArrayList<>();
+    for (TaggedText tt : tts) {
+      mentions.add(copy(tt.mentions));
+    }
+    EntityOverlap overlap = new EntityOverlap(TEXT, mentions);
+    assertEquals(tts.length, overlap.size());
+    for (int i = 1; i < tts.length; i++) {
+      TaggedText tt0 = create(), ttI = create();
+      tt0.mentions = copy(tts[0].mentions);
+      ttI.mentions = copy(tts[i].mentions);
+      assertEquals("annotator " + i, counts(new EntityOverlap(tt0, ttI), 1), counts(overlap, i));
+    }
+    return overlap;
+  }
+
+  private int id(String entity) {
+    return EntityDictionary.getGlobal().getId(entity);
+  }
+
+  @Test
+  public void testNested() {
+    // "Barack Obama" contains "Obama", "his wife Michelle" contains "his" and "Michelle"; empty mentions before "and" and at the end
+    TaggedText gold = create("0 12 Obama", "7 12 Obama", "17 34 Michelle", "17 20 Obama", "26 34 Michelle", "13 13 Obama", "49 49 Paris");
+    TaggedText tt1 = create("0 6 Obama", "17 34 Michelle", "43 49 Paris", "13 13 Obama");
+    TaggedText tt2 = create("0 34 Obama", "7 12 Michelle", "21 25 Michelle", "49 49 Paris");
+    TaggedText tt3 = create();
+    EntityOverlap overlap = assertPairwise(gold, tt1, tt2, tt3);
+    assertTrue(overlap.getCount(1, id("Obama"), id("Obama")) > 0);
+    assertTrue(overlap.getCount(1, id("Michelle"), id("Michelle")) > 0);
+    assertTrue(overlap.getCount(2, id("Obama"), id("Michelle")) > 0);
+    assertTrue(overlap.getPairCounts(3).isEmpty());
+  }
+
+  @Test
+  public void testRandom() {
+    Random random = new Random(42);
+    String[] entities = { "A", "B", "C" };
+    for (int run = 0; run < 200; run++) {
+      TaggedText[] tts = new TaggedText[1 + random.nextInt(4)];
+      for (int i = 0; i < tts.length; i++) {
+        tts[i] = create();
+        int count = random.nextInt(8);
+        for (int j = 0; j < count; j++) {
+          // also zero-length mentions
+          int start = random.nextInt(TEXT.length() + 1), end = Math.min(TEXT.length(), start + random.nextInt(15));
+          tts[i].mentions.add(new EntityMention(TEXT, start, end, entities[random.nextInt(entities.length)]));
+        }
+      }
+      assertPairwise(tts);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import tpt.dbweb.cat.datatypes.EntityMention;
+import tpt.dbweb.cat.datatypes.TaggedText;
+
+public class MentionChainAlignerTest {
+
+  /**
+   * Create a tagged text with one mention per letter. The chains are given as entity followed by letters, e.g. "Eabc".
+   */
+  private TaggedText create(String... chains) {
+    TaggedText tt = new TaggedText();
+    tt.id = "doc";
+    tt.text = "a b c d e f g h i";
+    for (String chain : chains) {
+      for (char c : chain.substring(1).toCharArray()) {
+        int pos = 2 * (c - 'a');
+        tt.mentions.add(new EntityMention(tt.text, pos, pos + 1, chain.substring(0, 1)));
+      }
+    }
+    tt.mentions.sort(null);
+    return tt;
+  }
+
+  @Test
+  public void testOptimal() {
+    TaggedText tt0 = create("Aab", "Bcde");
+    TaggedText tt1 = create("Xabcd", "Ye");
+
+    MentionChainAligner aligner = new MentionChainAligner();
+    Map<String, String> expected = new HashMap<>();
+    expected.put("A", "X");
+    expected.put("B", "X");
+    assertEquals(expected, aligner.guessEntityMapGreedy(tt0, tt1));
+
+    expected.put("B", "Y");
+    assertEquals(expected, aligner.guessEntityMapOptimal(tt0, tt1));
+  }
+
+  @Test
+  public void testTrivial() {
+    TaggedText tt0 = create("Aab", "Bcde", "Cf");
+    TaggedText tt1 = create("Xab", "Ycd", "Zef");
+
+    MentionChainAligner aligner = new MentionChainAligner();
+    Map<String, String> expected = new HashMap<>();
+    expected.put("A", "X");
+    expected.put("B", "Y");
+    expected.put("C", "Z");
+    assertEquals(expected, aligner.guessEntityMapOptimal(tt0, tt1));
+    assertEquals(aligner.guessEntityMapGreedy(tt0, tt1), aligner.guessEntityMapOptimal(tt0, tt1));
+  }
+}
@@ -0,0 +1,22 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package tpt.dbweb.cat.tools;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class UtilityTest {
+
+  @Test
+  public void testReadResourceAsString() throws IOException {
+    // the template is encoded in UTF-8, independent of the default charset
+    String template = Utility.readResourceAsString("compare-template.xml");
+    assertTrue(template.contains("<article/>"));
+    assertTrue(template.contains("// ✔"));
+  }
+}